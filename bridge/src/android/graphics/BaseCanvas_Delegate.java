@@ -115,20 +115,24 @@ public class BaseCanvas_Delegate {
     /*package*/ static void nDrawBitmap(long nativeCanvas, int[] colors, int offset, int stride,
             final float x, final float y, int width, int height, boolean hasAlpha,
             long nativePaintOrZero) {
-        // create a temp BufferedImage containing the content.
-        final ImagePool.Image image = ImagePoolProvider.get().acquire(width, height,
-                hasAlpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
-        image.setRGB(0, 0, width, height, colors, offset, stride);
-
-        draw(nativeCanvas, nativePaintOrZero, true /*compositeOnly*/, false /*forceSrcMode*/,
-                (graphics, paint) -> {
-                    if (paint != null && paint.isFilterBitmap()) {
-                        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
-                                RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-                    }
+        // create a temp BufferedImage containing the content. The drawing is done by the time
+        // draw() returns so the image can go back to the pool right away. All of its pixels are
+        // set below, so there is no need to clear it.
+        try (ImagePool.Image image = ImagePoolProvider.get().acquire(width, height,
+                hasAlpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB,
+                false /*clear*/)) {
+            image.setRGB(0, 0, width, height, colors, offset, stride);
+
+            draw(nativeCanvas, nativePaintOrZero, true /*compositeOnly*/, false /*forceSrcMode*/,
+                    (graphics, paint) -> {
+                        if (paint != null && paint.isFilterBitmap()) {
+                            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                                    RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                        }
 
-                    image.drawImage(graphics, (int) x, (int) y, null);
-                });
+                        image.drawImage(graphics, (int) x, (int) y, null);
+                    });
+        }
     }
 
     @LayoutlibDelegate
@@ -32,9 +32,12 @@ import android.annotation.Nullable;
 import android.graphics.Bitmap.Config;
 import android.hardware.HardwareBuffer;
 import android.os.Parcel;
+import android.util.imagepool.ImagePool;
+import android.util.imagepool.ImagePoolProvider;
 
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -69,7 +72,7 @@ public final class Bitmap_Delegate {
 
     // ---- delegate manager ----
     private static final DelegateManager<Bitmap_Delegate> sManager =
-            new DelegateManager<>(Bitmap_Delegate.class);
+            new DelegateManager<>(Bitmap_Delegate.class, Bitmap_Delegate::getApproximateSize);
     private static long sFinalizer = -1;
 
     // ---- delegate helper data ----
@@ -82,6 +85,8 @@ public final class Bitmap_Delegate {
     private boolean mIsPremultiplied = true;
     private int mGenerationId = 0;
     private boolean mIsMutable;
+    /** Whether {@link #mImage} comes from the {@link ImagePool} and goes back to it when freed */
+    private boolean mIsImagePooled;
 
 
     // ---- Public Helper methods ----
@@ -222,8 +227,9 @@ public final class Bitmap_Delegate {
             int height, int nativeConfig, boolean isMutable, long nativeColorSpace) {
         int imageType = getBufferedImageType();
 
-        // create the image
-        BufferedImage image = new BufferedImage(width, height, imageType);
+        // create the image, only cleared if the colors do not overwrite it
+        BufferedImage image = ImagePoolProvider.get().acquireBufferedImage(width, height,
+                imageType, colors == null);
 
         if (colors != null) {
             image.setRGB(0, 0, width, height, colors, offset, stride);
@@ -232,6 +238,7 @@ public final class Bitmap_Delegate {
         // create a delegate with the content of the stream.
         Bitmap_Delegate delegate = new Bitmap_Delegate(image, Config.nativeToConfig(nativeConfig));
         delegate.mIsMutable = isMutable;
+        delegate.mIsImagePooled = true;
 
         return createBitmap(delegate, getPremultipliedBitmapCreateFlags(isMutable),
                             Bitmap.getDefaultDensity());
@@ -251,8 +258,9 @@ public final class Bitmap_Delegate {
 
         int imageType = getBufferedImageType();
 
-        // create the image
-        BufferedImage image = new BufferedImage(width, height, imageType);
+        // create the image, no need to clear it as it is overwritten by the copy
+        BufferedImage image = ImagePoolProvider.get().acquireBufferedImage(width, height,
+                imageType, false /*clear*/);
 
         // copy the source image into the image.
         int[] argb = new int[width * height];
@@ -262,6 +270,7 @@ public final class Bitmap_Delegate {
         // create a delegate with the content of the stream.
         Bitmap_Delegate delegate = new Bitmap_Delegate(image, Config.nativeToConfig(nativeConfig));
         delegate.mIsMutable = isMutable;
+        delegate.mIsImagePooled = true;
 
         return createBitmap(delegate, getPremultipliedBitmapCreateFlags(isMutable),
                 Bitmap.getDefaultDensity());
@@ -285,7 +294,16 @@ public final class Bitmap_Delegate {
     /*package*/ static long nativeGetNativeFinalizer() {
         synchronized (Bitmap_Delegate.class) {
             if (sFinalizer == -1) {
-                sFinalizer = NativeAllocationRegistry_Delegate.createFinalizer(sManager::removeJavaReferenceFor);
+                sFinalizer = NativeAllocationRegistry_Delegate.createFinalizer(nativePtr -> {
+                    Bitmap_Delegate delegate = sManager.getDelegate(nativePtr);
+                    sManager.removeJavaReferenceFor(nativePtr);
+                    // Only hand the image back once the Bitmap, and so any Canvas drawing into it,
+                    // is unreachable.
+                    if (delegate != null && delegate.mIsImagePooled) {
+                        delegate.mIsImagePooled = false;
+                        ImagePoolProvider.get().release(delegate.mImage);
+                    }
+                });
             }
             return sFinalizer;
         }
@@ -293,7 +311,8 @@ public final class Bitmap_Delegate {
 
     @LayoutlibDelegate
     /*package*/ static void nativeRecycle(long nativeBitmap) {
-        // In our case recycle() is a no-op. We will let the finalizer to dispose the bitmap.
+        // In our case recycle() is a no-op. We will let the finalizer to dispose the bitmap and
+        // return its image to the pool, as canvases and snapshots can still reference it.
     }
 
     @LayoutlibDelegate
@@ -702,6 +721,15 @@ public final class Bitmap_Delegate {
                 null /*ninePatchChunk*/, null /* layoutBounds */, true /* fromMalloc */);
     }
 
+    /**
+     * Returns the number of bytes used by the pixels of the bitmap.
+     */
+    private static long getApproximateSize(Bitmap_Delegate delegate) {
+        DataBuffer buffer = delegate.mImage.getRaster().getDataBuffer();
+        return (long) buffer.getSize() * buffer.getNumBanks() *
+                DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+
     private static Set<BitmapCreateFlags> getPremultipliedBitmapCreateFlags(boolean isMutable) {
         Set<BitmapCreateFlags> createFlags = EnumSet.of(BitmapCreateFlags.PREMULTIPLIED);
         if (isMutable) {
@@ -409,7 +409,7 @@ public final class Canvas_Delegate extends BaseCanvas_Delegate {
             return false;
         }
 
-        Rectangle rect = canvasDelegate.getSnapshot().getClip().getBounds();
+        Rectangle rect = canvasDelegate.getSnapshot().getClipBounds();
         if (rect != null && !rect.isEmpty()) {
             bounds.left = rect.x;
             bounds.top = rect.y;
@@ -448,8 +448,17 @@ public final class Canvas_Delegate extends BaseCanvas_Delegate {
     public static boolean nQuickReject(long nativeCanvas,
                                                      float left, float top,
                                                      float right, float bottom) {
-        // FIXME properly implement quickReject
-        return false;
+        // get the delegate from the native int.
+        Canvas_Delegate canvasDelegate = Canvas_Delegate.getDelegate(nativeCanvas);
+        if (canvasDelegate == null) {
+            return false;
+        }
+
+        // Only reject what is fully outside of the bounds of the clip. This is conservative
+        // but enough to skip the views outside of the area being redrawn.
+        Rectangle clipBounds = canvasDelegate.getSnapshot().getClipBounds();
+        return clipBounds != null &&
+                !clipBounds.intersects(left, top, right - left, bottom - top);
     }
 
     @LayoutlibDelegate
@@ -57,7 +57,7 @@ public final class Path_Delegate {
 
     // ---- delegate manager ----
     private static final DelegateManager<Path_Delegate> sManager =
-            new DelegateManager<Path_Delegate>(Path_Delegate.class);
+            new DelegateManager<>(Path_Delegate.class, Path_Delegate::getApproximateSize);
 
     private static final float EPSILON = 1e-4f;
 
@@ -537,6 +537,31 @@ public final class Path_Delegate {
 
     // ---- Private helper methods ----
 
+    /**
+     * Returns the approximate number of bytes used by the points of the path.
+     */
+    private static long getApproximateSize(Path_Delegate delegate) {
+        long points = 0;
+        double[] coords = new double[6];
+        for (PathIterator iterator = delegate.mPath.getPathIterator(null); !iterator.isDone();
+                iterator.next()) {
+            switch (iterator.currentSegment(coords)) {
+                case PathIterator.SEG_MOVETO:
+                case PathIterator.SEG_LINETO:
+                    points += 1;
+                    break;
+                case PathIterator.SEG_QUADTO:
+                    points += 2;
+                    break;
+                case PathIterator.SEG_CUBICTO:
+                    points += 3;
+                    break;
+            }
+        }
+        // Path2D.Double stores two doubles per point.
+        return points * 2 * Double.BYTES;
+    }
+
     private void set(Path_Delegate delegate) {
         mPath.reset();
         setFillType(delegate.mFillType);
@@ -21,6 +21,8 @@ import com.android.layoutlib.bridge.Bridge;
 import com.android.layoutlib.bridge.impl.DelegateManager;
 import com.android.tools.layoutlib.annotations.LayoutlibDelegate;
 
+import android.annotation.NonNull;
+import android.annotation.Nullable;
 import android.os.Parcel;
 
 import java.awt.Rectangle;
@@ -77,6 +79,12 @@ public class Region_Delegate {
      * @return a new area or null.
      */
     public static Area combineShapes(Shape shape1, Shape shape2, int regionOp) {
+        // Boolean operations on Area are expensive, avoid them when the result is a rectangle.
+        Rectangle2D rect = combineRectangles(shape1, shape2, regionOp);
+        if (rect != null) {
+            return new Area(rect);
+        }
+
         if (regionOp == Region.Op.DIFFERENCE.nativeInt) {
             // if shape1 is null (empty), then the result is null.
             if (shape1 == null) {
@@ -135,6 +143,143 @@ public class Region_Delegate {
         return null;
     }
 
+    /**
+     * Combines two rectangular {@link Shape}s according to the given {@link Region.Op}, when the
+     * result is also a rectangle.
+     * <p/>
+     * This returns null if one of the shapes is not a rectangle, or if the result of the
+     * operation is not a rectangle. {@link #combineShapes(Shape, Shape, int)} must be used in that
+     * case.
+     *
+     * @param shape1 the first shape to combine which can be null if there's no original clip.
+     * @param shape2 the 2nd shape to combine
+     * @param regionOp the operande for the combine
+     * @return a new rectangle or null.
+     */
+    @Nullable
+    public static Rectangle2D combineRectangles(@Nullable Shape shape1, @NonNull Shape shape2,
+            int regionOp) {
+        Rectangle2D rect2 = getRectangle(shape2);
+        if (rect2 == null) {
+            return null;
+        }
+        Rectangle2D rect1 = null;
+        if (shape1 != null) {
+            rect1 = getRectangle(shape1);
+            if (rect1 == null) {
+                return null;
+            }
+        }
+
+        if (regionOp == Region.Op.DIFFERENCE.nativeInt) {
+            return rect1 != null ? subtract(rect1, rect2) : null;
+        } else if (regionOp == Region.Op.REVERSE_DIFFERENCE.nativeInt) {
+            return rect1 != null ? subtract(rect2, rect1) : copy(rect2);
+        } else if (rect1 == null || rect1.isEmpty()) {
+            // INTERSECT and UNION of a null or empty shape with the 2nd shape.
+            if (rect1 != null && regionOp == Region.Op.INTERSECT.nativeInt) {
+                return new Rectangle2D.Float();
+            }
+            return regionOp == Region.Op.INTERSECT.nativeInt ||
+                    regionOp == Region.Op.UNION.nativeInt ||
+                    regionOp == Region.Op.XOR.nativeInt ? copy(rect2) : null;
+        } else if (regionOp == Region.Op.INTERSECT.nativeInt) {
+            if (!rect1.intersects(rect2)) {
+                return new Rectangle2D.Float();
+            }
+            return rect1.createIntersection(rect2);
+        } else if (regionOp == Region.Op.UNION.nativeInt) {
+            return union(rect1, rect2);
+        } else if (regionOp == Region.Op.XOR.nativeInt) {
+            return rect2.isEmpty() ? copy(rect1) : null;
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the given shape as a rectangle, or null if it is not a rectangle.
+     */
+    @Nullable
+    private static Rectangle2D getRectangle(@NonNull Shape shape) {
+        if (shape instanceof Rectangle2D) {
+            return (Rectangle2D) shape;
+        }
+        if (shape instanceof Area && ((Area) shape).isRectangular()) {
+            return shape.getBounds2D();
+        }
+        return null;
+    }
+
+    @NonNull
+    private static Rectangle2D copy(@NonNull Rectangle2D rect) {
+        return (Rectangle2D) rect.clone();
+    }
+
+    /**
+     * Returns rect1 - rect2, or null if the result is not a rectangle.
+     */
+    @Nullable
+    private static Rectangle2D subtract(@NonNull Rectangle2D rect1, @NonNull Rectangle2D rect2) {
+        if (rect1.isEmpty() || rect2.isEmpty() || !rect1.intersects(rect2)) {
+            return copy(rect1);
+        }
+
+        boolean coversX = rect2.getMinX() <= rect1.getMinX() && rect2.getMaxX() >= rect1.getMaxX();
+        boolean coversY = rect2.getMinY() <= rect1.getMinY() && rect2.getMaxY() >= rect1.getMaxY();
+        if (coversX && coversY) {
+            return new Rectangle2D.Float();
+        }
+
+        Rectangle2D result = copy(rect1);
+        if (coversX) {
+            // rect2 removes the top or the bottom of rect1, unless it is a band in the middle.
+            if (rect2.getMinY() <= rect1.getMinY()) {
+                result.setRect(rect1.getX(), rect2.getMaxY(), rect1.getWidth(),
+                        rect1.getMaxY() - rect2.getMaxY());
+                return result;
+            } else if (rect2.getMaxY() >= rect1.getMaxY()) {
+                result.setRect(rect1.getX(), rect1.getY(), rect1.getWidth(),
+                        rect2.getMinY() - rect1.getMinY());
+                return result;
+            }
+        } else if (coversY) {
+            if (rect2.getMinX() <= rect1.getMinX()) {
+                result.setRect(rect2.getMaxX(), rect1.getY(), rect1.getMaxX() - rect2.getMaxX(),
+                        rect1.getHeight());
+                return result;
+            } else if (rect2.getMaxX() >= rect1.getMaxX()) {
+                result.setRect(rect1.getX(), rect1.getY(), rect2.getMinX() - rect1.getMinX(),
+                        rect1.getHeight());
+                return result;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the union of two non empty rectangles, or null if the result is not a rectangle.
+     */
+    @Nullable
+    private static Rectangle2D union(@NonNull Rectangle2D rect1, @NonNull Rectangle2D rect2) {
+        if (rect2.isEmpty() || rect1.contains(rect2)) {
+            return copy(rect1);
+        }
+        if (rect2.contains(rect1)) {
+            return copy(rect2);
+        }
+
+        // Rectangles that are aligned on one axis and touch or overlap on the other one.
+        boolean sameX = rect1.getMinX() == rect2.getMinX() && rect1.getMaxX() == rect2.getMaxX();
+        boolean sameY = rect1.getMinY() == rect2.getMinY() && rect1.getMaxY() == rect2.getMaxY();
+        if ((sameX && rect1.getMinY() <= rect2.getMaxY() && rect2.getMinY() <= rect1.getMaxY()) ||
+                (sameY && rect1.getMinX() <= rect2.getMaxX() &&
+                        rect2.getMinX() <= rect1.getMaxX())) {
+            return rect1.createUnion(rect2);
+        }
+        return null;
+    }
+
     // ---- native methods ----
 
     @LayoutlibDelegate
@@ -378,7 +523,7 @@ public class Region_Delegate {
                 new Rectangle2D.Float(left, top, right - left, bottom - top), op);
 
         assert region.mArea != null;
-        if (region.mArea != null) {
+        if (region.mArea == null) {
             region.mArea = new Area();
         }
 
@@ -396,7 +541,7 @@ public class Region_Delegate {
                 new Rectangle2D.Float(rect.left, rect.top, rect.width(), rect.height()), op);
 
         assert region.mArea != null;
-        if (region.mArea != null) {
+        if (region.mArea == null) {
             region.mArea = new Area();
         }
 
@@ -424,7 +569,7 @@ public class Region_Delegate {
         dstRegion.mArea = combineShapes(region1.mArea, region2.mArea, op);
 
         assert dstRegion.mArea != null;
-        if (dstRegion.mArea != null) {
+        if (dstRegion.mArea == null) {
             dstRegion.mArea = new Area();
         }
 
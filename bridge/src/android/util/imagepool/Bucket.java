@@ -23,22 +23,52 @@ import android.util.imagepool.ImagePool.Image.Orientation;
 
 import java.awt.image.BufferedImage;
 import java.lang.ref.SoftReference;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Queue;
 
 /**
  * Data model for image pool. Bucket contains the list of same sized buffered image in soft ref.
+ * <p/>
+ * Each bucket is guarded by its own monitor so that threads working on different sizes do not
+ * contend with each other.
  */
 /* private package */ class Bucket {
 
     @VisibleForTesting final Queue<SoftReference<BufferedImage>> mBufferedImageRef = new LinkedList<>();
+    /** How to populate the bucket, null for the buckets that are not populated by the pool. */
+    @Nullable final BucketCreationMetaData mMetaData;
 
-    public boolean isEmpty() {
+    // The following fields are guarded by the bucket monitor.
+    /**
+     * Copies created on top of {@link BucketCreationMetaData#mNumberOfCopies} when the bucket is
+     * populated. It grows every time all the images of the bucket are in use.
+     */
+    int mAdditionalCopies;
+    /** Whether the bucket has been populated since it was created or evicted. */
+    boolean mPopulated;
+    /** {@link System#nanoTime()} of the last time an image was acquired from the bucket. */
+    long mLastUsedNanos;
+    /** Number of times the bucket was populated. */
+    int mPopulateCount;
+    /** Number of images acquired from the bucket, without and with populating it. */
+    long mHitCount;
+    long mMissCount;
+
+    Bucket() {
+        this(null);
+    }
+
+    Bucket(@Nullable BucketCreationMetaData metaData) {
+        mMetaData = metaData;
+    }
+
+    public synchronized boolean isEmpty() {
         return mBufferedImageRef.isEmpty();
     }
 
     @Nullable
-    public BufferedImage remove() {
+    public synchronized BufferedImage remove() {
         if (mBufferedImageRef.isEmpty()) {
             return null;
         }
@@ -47,12 +77,60 @@ import java.util.Queue;
         return reference == null ? null : reference.get();
     }
 
-    public void offer(BufferedImage img) {
+    public synchronized void offer(BufferedImage img) {
         mBufferedImageRef.offer(new SoftReference<>(img));
     }
 
-    public void clear() {
+    public synchronized void clear() {
         mBufferedImageRef.clear();
+        mAdditionalCopies = 0;
+        mPopulated = false;
+    }
+
+    /** Returns the number of images in the bucket, including the garbage collected ones. */
+    public synchronized int size() {
+        return mBufferedImageRef.size();
+    }
+
+    /**
+     * Same as {@link #clear()}, but returns the number of images that were dropped, including
+     * the ones that had already been garbage collected.
+     */
+    public synchronized int evict() {
+        int count = mBufferedImageRef.size();
+        clear();
+        return count;
+    }
+
+    /**
+     * Returns whether the bucket holds the given image.
+     */
+    public synchronized boolean contains(BufferedImage img) {
+        for (SoftReference<BufferedImage> reference : mBufferedImageRef) {
+            if (reference.get() == img) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes the references to images that have been garbage collected and returns the number
+     * of bytes used by the remaining images.
+     */
+    public synchronized long pruneAndGetByteSize() {
+        long size = 0;
+        Iterator<SoftReference<BufferedImage>> iterator = mBufferedImageRef.iterator();
+        while (iterator.hasNext()) {
+            BufferedImage img = iterator.next().get();
+            if (img == null) {
+                iterator.remove();
+            } else {
+                size += (long) img.getWidth() * img.getHeight() *
+                        ImagePoolStatsProdImpl.ESTIMATED_PIXEL_BYTES;
+            }
+        }
+        return size;
     }
 
     static class BucketCreationMetaData {
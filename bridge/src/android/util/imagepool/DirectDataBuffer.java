@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.util.imagepool;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * {@link DataBuffer} of ints stored outside of the Java heap, in a direct {@link ByteBuffer}.
+ * <p/>
+ * The images using it are of type {@link BufferedImage#TYPE_CUSTOM}, so the buffer remembers the
+ * type the image was requested with. Java2D has no optimized loops for such images: drawing into
+ * them is slower than into the regular ones.
+ */
+/* private package */ class DirectDataBuffer extends DataBuffer {
+
+    private static final int[] ZEROS = new int[4096];
+
+    private final IntBuffer mData;
+    private final int mImageType;
+
+    DirectDataBuffer(int size, int imageType) {
+        super(TYPE_INT, size);
+        mData = ByteBuffer.allocateDirect(size * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+        mImageType = imageType;
+    }
+
+    /**
+     * Returns the {@link BufferedImage} type the image was requested with.
+     */
+    int getImageType() {
+        return mImageType;
+    }
+
+    @Override
+    public int getElem(int bank, int i) {
+        return mData.get(i);
+    }
+
+    @Override
+    public void setElem(int bank, int i, int val) {
+        mData.put(i, val);
+    }
+
+    /**
+     * Sets length elements to 0, starting at offset.
+     */
+    void clear(int offset, int length) {
+        IntBuffer data = mData.duplicate();
+        data.position(offset);
+        while (length > 0) {
+            int count = Math.min(length, ZEROS.length);
+            data.put(ZEROS, 0, count);
+            length -= count;
+        }
+    }
+}
@@ -44,6 +44,9 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
     private final Orientation mOrientation;
 
     @VisibleForTesting final BufferedImage mImg;
+    /** Gives {@link #mImg} back to the pool, null once the image is closed. */
+    @Nullable private Runnable mCloseAction;
+    private boolean mClosed;
 
     ImageImpl(
             int width,
@@ -70,6 +73,7 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
     public void setRGB(int x, int y, int width, int height, int[] colors, int offset, int stride) {
         mLock.readLock().lock();
         try {
+            checkNotClosed();
             // TODO: Apply orientation.
             mImg.setRGB(x, y, width, height, colors, offset, stride);
         } finally {
@@ -81,10 +85,45 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
     public void drawImage(Graphics2D graphics, int x, int y, @Nullable ImageObserver o) {
         mLock.readLock().lock();
         try {
+            checkNotClosed();
             // TODO: Apply orientation.
-            graphics.drawImage(mImg, x, y, mWidth, mHeight, o);
+            // Only draw the used part, the rest of the buffered image is not cleared.
+            graphics.drawImage(mImg, x, y, x + mWidth, y + mHeight, 0, 0, mWidth, mHeight, o);
         } finally {
             mLock.readLock().unlock();
         }
     }
-}
\ No newline at end of file
+
+    @Override
+    public void close() {
+        Runnable closeAction;
+        mLock.writeLock().lock();
+        try {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            closeAction = mCloseAction;
+            mCloseAction = null;
+        } finally {
+            mLock.writeLock().unlock();
+        }
+
+        if (closeAction != null) {
+            closeAction.run();
+        }
+    }
+
+    /**
+     * Sets what {@link #close()} has to do to give the image back to the pool.
+     */
+    void setCloseAction(@NotNull Runnable closeAction) {
+        mCloseAction = closeAction;
+    }
+
+    private void checkNotClosed() {
+        if (mClosed) {
+            throw new IllegalStateException("The image has been closed");
+        }
+    }
+}
@@ -41,17 +41,55 @@ public interface ImagePool {
     @NotNull
     Image acquire(final int w, final int h, final int type);
 
+    /**
+     * Same as {@link #acquire(int, int, int)}, but the image is only cleared if clear is true.
+     * Otherwise its content is undefined, which is fine for callers that overwrite all of its
+     * pixels anyway.
+     */
+    @NotNull
+    Image acquire(final int w, final int h, final int type, boolean clear);
+
+    /**
+     * Returns a cleared {@link BufferedImage} of exactly width w and height h.
+     * <p/>
+     * Unlike {@link #acquire(int, int, int)}, the image is not returned to the pool automatically.
+     * It has to be given back with {@link #release(BufferedImage)} once it is not used anymore.
+     * Images that are never released are simply garbage collected.
+     */
+    @NotNull
+    BufferedImage acquireBufferedImage(final int w, final int h, final int type);
+
+    /**
+     * Same as {@link #acquireBufferedImage(int, int, int)}, but the image is only cleared if
+     * clear is true. Otherwise its content is undefined.
+     */
+    @NotNull
+    BufferedImage acquireBufferedImage(final int w, final int h, final int type, boolean clear);
+
+    /**
+     * Gives back an image obtained from {@link #acquireBufferedImage(int, int, int)} so it can be
+     * reused. The image must not be used after this call.
+     */
+    void release(@NotNull BufferedImage image);
+
     /**
      * Disposes the image pool, releasing all the references to the buffered images.
      */
     void dispose();
 
+    /**
+     * Returns a snapshot of the statistics of the pool.
+     */
+    @NotNull
+    ImagePoolStatistics getStatistics();
+
     /**
      * Interface that represents a buffered image. Using this wrapper allows us ot better track
      * memory usages around BufferedImage. When all of it's references are removed, it will
-     * automatically be pooled back into the image pool for re-use.
+     * automatically be pooled back into the image pool for re-use. Calling {@link #close()}
+     * gives it back right away, without waiting for the garbage collector.
      */
-    interface Image {
+    interface Image extends AutoCloseable {
 
         /**
          * Same as {@link BufferedImage#setRGB(int, int, int, int, int[], int, int)}
@@ -73,6 +111,13 @@ public interface ImagePool {
 
         int getWidth();
         int getHeight();
+
+        /**
+         * Gives the image back to the pool. The image must not be used after this call. Calling
+         * it more than once has no effect.
+         */
+        @Override
+        void close();
     }
 
     /**
@@ -83,6 +128,8 @@ public interface ImagePool {
         public final int[] mBucketSizes;
         public final int[] mNumberOfCopies;
         public final long mBucketMaxCacheSize;
+        public final long mExactSizeMaxCacheSize;
+        public final boolean mOffHeap;
 
         /**
          * @param bucketPixelSizes - list of pixel sizes to bucket (categorize) images. The list
@@ -95,10 +142,34 @@ public interface ImagePool {
          */
         public ImagePoolPolicy(
                 int[] bucketPixelSizes, int[] numberOfCopies, long bucketMaxCacheByteSize) {
+            this(bucketPixelSizes, numberOfCopies, bucketMaxCacheByteSize,
+                    bucketMaxCacheByteSize);
+        }
+
+        /**
+         * @param exactSizeMaxCacheByteSize - Maximum byte size of the released images of
+         * {@link #acquireBufferedImage(int, int, int)} the pool is allowed to keep for reuse.
+         */
+        public ImagePoolPolicy(int[] bucketPixelSizes, int[] numberOfCopies,
+                long bucketMaxCacheByteSize, long exactSizeMaxCacheByteSize) {
+            this(bucketPixelSizes, numberOfCopies, bucketMaxCacheByteSize,
+                    exactSizeMaxCacheByteSize, false);
+        }
+
+        /**
+         * @param offHeap - Whether the pixels of the images of
+         * {@link #acquireBufferedImage(int, int, int)} are stored outside of the Java heap. This
+         * keeps the heap small, but drawing into those images is slower. Only the int image types
+         * are supported, the other ones stay on the heap.
+         */
+        public ImagePoolPolicy(int[] bucketPixelSizes, int[] numberOfCopies,
+                long bucketMaxCacheByteSize, long exactSizeMaxCacheByteSize, boolean offHeap) {
             assert bucketPixelSizes.length == numberOfCopies.length;
             mBucketSizes = bucketPixelSizes;
             mNumberOfCopies = numberOfCopies;
             mBucketMaxCacheSize = bucketMaxCacheByteSize;
+            mExactSizeMaxCacheSize = exactSizeMaxCacheByteSize;
+            mOffHeap = offHeap;
         }
     }
 }
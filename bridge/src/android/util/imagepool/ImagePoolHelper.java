@@ -22,38 +22,44 @@ import android.util.imagepool.Bucket.BucketCreationMetaData;
 import android.util.imagepool.ImagePool.Image.Orientation;
 import android.util.imagepool.ImagePool.ImagePoolPolicy;
 
+import java.awt.color.ColorSpace;
 import java.awt.image.BufferedImage;
-import java.util.Map;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
 
 /* private package */ class ImagePoolHelper {
 
-    @Nullable
-    public static BucketCreationMetaData getBucketCreationMetaData(int w, int h, int type, ImagePoolPolicy poolPolicy, ImagePoolStats stats) {
-        // Find the bucket sizes for both dimensions
-        int widthBucket = -1;
-        int heightBucket = -1;
-        int index = 0;
-
-        for (int bucketMinSize : poolPolicy.mBucketSizes) {
-            if (widthBucket == -1 && w <= bucketMinSize) {
-                widthBucket = bucketMinSize;
-
-                if (heightBucket != -1) {
-                    break;
-                }
-            }
-            if (heightBucket == -1 && h <= bucketMinSize) {
-                heightBucket = bucketMinSize;
+    /** Maximum number of {@link Bucket#mAdditionalCopies}. */
+    private static final int MAX_ADDITIONAL_COPIES = 4;
 
-                if (widthBucket != -1) {
-                    break;
-                }
+    /**
+     * Returns the index of the smallest bucket size of the policy that can hold the given
+     * dimension, or -1 if it is bigger than all the bucket sizes.
+     */
+    public static int getSizeClass(int size, ImagePoolPolicy poolPolicy) {
+        int[] bucketSizes = poolPolicy.mBucketSizes;
+        for (int i = 0; i < bucketSizes.length; i++) {
+            if (size <= bucketSizes[i]) {
+                return i;
             }
-            ++index;
         }
+        return -1;
+    }
 
-        stats.recordBucketRequest(w, h);
-
+    /**
+     * Returns how to populate the bucket of the given size classes, or null if the pool does not
+     * keep images that big.
+     */
+    @Nullable
+    public static BucketCreationMetaData getBucketCreationMetaData(int widthClass,
+            int heightClass, int type, ImagePoolPolicy poolPolicy) {
+        if (widthClass < 0 || heightClass < 0) {
+            return null;
+        }
+        int index = Math.max(widthClass, heightClass);
         if (index >= poolPolicy.mNumberOfCopies.length) {
             return null;
         }
@@ -63,7 +69,8 @@ import java.util.Map;
 //            return new BucketCreationMetaData(heightBucket, widthBucket, type, poolPolicy.mNumberOfCopies[index],
 //                    Orientation.CW_90, poolPolicy.mBucketMaxCacheSize);
 //        }
-        return new BucketCreationMetaData(widthBucket, heightBucket, type, poolPolicy.mNumberOfCopies[index],
+        return new BucketCreationMetaData(poolPolicy.mBucketSizes[widthClass],
+                poolPolicy.mBucketSizes[heightClass], type, poolPolicy.mNumberOfCopies[index],
                 Orientation.NONE, poolPolicy.mBucketMaxCacheSize);
     }
 
@@ -108,8 +115,14 @@ import java.util.Map;
             return null;
         }
 
+        if (bucket.mPopulated && bucket.mAdditionalCopies < MAX_ADDITIONAL_COPIES) {
+            // All the images of the bucket are in use, keep more of them from now on.
+            bucket.mAdditionalCopies++;
+        }
+
         BufferedImage strongRef = null;
-        for (int i = 0; i < metaData.mNumberOfCopies; i++) {
+        int numberOfCopies = metaData.mNumberOfCopies + bucket.mAdditionalCopies;
+        for (int i = 0; i < numberOfCopies; i++) {
             if (!stats.fitsMaxCacheSize(
                     metaData.mWidth, metaData.mHeight, metaData.mMaxCacheSize)) {
                 break;
@@ -119,26 +132,57 @@ import java.util.Map;
             bucket.offer(strongRef);
             stats.recordBucketCreation(metaData.mWidth, metaData.mHeight);
         }
+        if (strongRef != null) {
+            bucket.mPopulated = true;
+            bucket.mPopulateCount++;
+        }
         return strongRef;
     }
 
-    private static String toKey(int w, int h, int type) {
-        return new StringBuilder()
-                .append(w)
-                .append('x')
-                .append(h)
-                .append(':')
-                .append(type)
-                .toString();
+    /**
+     * Creates an image whose pixels are stored outside of the Java heap, or returns null if the
+     * type is not supported. The color models are the ones {@link BufferedImage} uses for the
+     * same types.
+     */
+    @Nullable
+    static BufferedImage createOffHeapImage(int w, int h, int type) {
+        DirectColorModel colorModel;
+        switch (type) {
+            case BufferedImage.TYPE_INT_RGB:
+                colorModel = new DirectColorModel(24, 0x00ff0000, 0x0000ff00, 0x000000ff, 0x0);
+                break;
+            case BufferedImage.TYPE_INT_ARGB:
+                colorModel = (DirectColorModel) ColorModel.getRGBdefault();
+                break;
+            case BufferedImage.TYPE_INT_ARGB_PRE:
+                colorModel = new DirectColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB), 32,
+                        0x00ff0000, 0x0000ff00, 0x000000ff, 0xff000000, true, DataBuffer.TYPE_INT);
+                break;
+            default:
+                return null;
+        }
+        WritableRaster raster = Raster.createWritableRaster(
+                colorModel.createCompatibleSampleModel(w, h), new DirectDataBuffer(w * h, type),
+                null);
+        return new BufferedImage(colorModel, raster, colorModel.isAlphaPremultiplied(), null);
     }
 
-    public static Bucket getBucket(Map<String, Bucket> map, BucketCreationMetaData metaData, ImagePoolPolicy mPolicy) {
-        String key = toKey(metaData.mWidth, metaData.mHeight, metaData.mType);
-        Bucket bucket = map.get(key);
-        if (bucket == null) {
-            bucket = new Bucket();
-            map.put(key, bucket);
+    /**
+     * Returns the type the image was created with, which for the images created by
+     * {@link #createOffHeapImage} is not the one of {@link BufferedImage#getType()}.
+     */
+    static int getType(BufferedImage image) {
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        if (buffer instanceof DirectDataBuffer) {
+            return ((DirectDataBuffer) buffer).getImageType();
         }
-        return bucket;
+        return image.getType();
+    }
+
+    /**
+     * Returns the key of the images of exactly the given size and type.
+     */
+    static long toKey(int w, int h, int type) {
+        return ((long) w << 32) | ((long) h << 8) | (type & 0xFF);
     }
 }
\ No newline at end of file
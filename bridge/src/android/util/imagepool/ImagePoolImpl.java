@@ -21,70 +21,396 @@ import com.android.tools.layoutlib.annotations.VisibleForTesting;
 
 import android.util.imagepool.Bucket.BucketCreationMetaData;
 import android.util.imagepool.ImagePool.Image.Orientation;
+import android.util.imagepool.ImagePoolStatistics.BucketStatistics;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
 import java.awt.image.DataBufferInt;
 import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.function.Consumer;
 
 import com.google.common.base.FinalizablePhantomReference;
 import com.google.common.base.FinalizableReferenceQueue;
 
+/**
+ * {@link ImagePool} that can be used from several threads at once.
+ * <p/>
+ * There is no global lock: the buckets are indexed by size class and type in a fixed table and
+ * each of them is guarded by its own monitor. The images given back with {@link #release} are
+ * first kept in a small per-thread {@link Magazine}, so that a thread acquiring and releasing the
+ * same sizes over and over does not touch any shared state.
+ */
 class ImagePoolImpl implements ImagePool {
 
-    private final ReentrantReadWriteLock mReentrantLock = new ReentrantReadWriteLock();
+    /** Number of types of {@link BufferedImage} that have a bucket. */
+    private static final int TYPE_COUNT = BufferedImage.TYPE_BYTE_INDEXED + 1;
+    /** Number of released images each thread keeps for itself. */
+    private static final int MAGAZINE_SIZE = 2;
+    /** Time after which the images of an unused bucket can make room for other buckets. */
+    private static final long COLD_BUCKET_NANOS = TimeUnit.SECONDS.toNanos(1);
+
     private final ImagePoolPolicy mPolicy;
-    @VisibleForTesting final Map<String, Bucket> mPool = new HashMap<>();
+    /**
+     * Buckets by width class, height class and type, see {@link #getBucket}. The buckets are
+     * created lazily.
+     */
+    private final AtomicReferenceArray<Bucket> mPool;
+    /** Released images of {@link #acquireBufferedImage}, by exact size and type. */
+    @VisibleForTesting final Map<Long, Bucket> mExactSizePool = new ConcurrentHashMap<>();
+    /** Bytes held by {@link #mExactSizePool} and the magazines, approximately. */
+    private final AtomicLong mExactSizeCachedBytes = new AtomicLong();
+    private final ThreadLocal<Magazine> mMagazine = ThreadLocal.withInitial(Magazine::new);
+    /** Magazines of all the threads, to account for the images they hold. */
+    private final Set<Magazine> mMagazines = ConcurrentHashMap.newKeySet();
+    /** Incremented by {@link #dispose()} to drop the images of all the magazines. */
+    private final AtomicInteger mGeneration = new AtomicInteger();
     @VisibleForTesting final ImagePoolStats mImagePoolStats = new ImagePoolStatsProdImpl();
     private final FinalizableReferenceQueue mFinalizableReferenceQueue = new FinalizableReferenceQueue();
-    private final Set<Reference<?>> mReferences = new HashSet<>();
+    private final Set<Reference<?>> mReferences = ConcurrentHashMap.newKeySet();
 
     public ImagePoolImpl(ImagePoolPolicy policy) {
         mPolicy = policy;
+        int sizeClasses = policy.mBucketSizes.length;
+        mPool = new AtomicReferenceArray<>(sizeClasses * sizeClasses * TYPE_COUNT);
         mImagePoolStats.start();
     }
 
     @Override
     public Image acquire(int w, int h, int type) {
-        return acquire(w, h, type, null);
+        return acquire(w, h, type, true, null);
+    }
+
+    @Override
+    public Image acquire(int w, int h, int type, boolean clear) {
+        return acquire(w, h, type, clear, null);
     }
 
     /* package private */ Image acquire(int w, int h, int type,
             @Nullable Consumer<BufferedImage> freedCallback) {
-        mReentrantLock.writeLock().lock();
-        try {
-            BucketCreationMetaData metaData =
-                    ImagePoolHelper.getBucketCreationMetaData(w, h, type, mPolicy, mImagePoolStats);
+        return acquire(w, h, type, true, freedCallback);
+    }
+
+    private Image acquire(int w, int h, int type, boolean clear,
+            @Nullable Consumer<BufferedImage> freedCallback) {
+        mImagePoolStats.recordBucketRequest(w, h);
+        Bucket bucket = getBucket(w, h, type);
+        if (bucket == null) {
+            return defaultImageImpl(w, h, type, freedCallback);
+        }
+
+        BucketCreationMetaData metaData = bucket.mMetaData;
+        BufferedImage img;
+        synchronized (bucket) {
+            bucket.mLastUsedNanos = System.nanoTime();
+            int populateCount = bucket.mPopulateCount;
+            img = ImagePoolHelper.getBufferedImage(bucket, metaData, mImagePoolStats);
+            if (img != null && populateCount == bucket.mPopulateCount) {
+                bucket.mHitCount++;
+            } else {
+                bucket.mMissCount++;
+            }
+        }
+        if (img == null && evictColdBuckets(bucket)) {
+            synchronized (bucket) {
+                img = ImagePoolHelper.getBufferedImage(bucket, metaData, mImagePoolStats);
+            }
+        }
+        if (img == null) {
+            return defaultImageImpl(w, h, type, freedCallback);
+        }
+
+        if (clear) {
+            // The image comes from a bucket of a bigger size, only the part that is used needs
+            // to be cleared.
+            clearImage(img, w, h);
+        }
+
+        return prepareImage(
+                new ImageImpl(w, h, img, metaData.mOrientation),
+                true,
+                img,
+                bucket,
+                freedCallback);
+    }
+
+    /**
+     * Returns the bucket of the images of the given size and type, or null if the pool does not
+     * keep such images.
+     */
+    @Nullable
+    private Bucket getBucket(int w, int h, int type) {
+        if (type < 0 || type >= TYPE_COUNT) {
+            return null;
+        }
+        int widthClass = ImagePoolHelper.getSizeClass(w, mPolicy);
+        int heightClass = ImagePoolHelper.getSizeClass(h, mPolicy);
+        if (widthClass < 0 || heightClass < 0) {
+            return null;
+        }
+
+        int index = (widthClass * mPolicy.mBucketSizes.length + heightClass) * TYPE_COUNT + type;
+        Bucket bucket = mPool.get(index);
+        if (bucket == null) {
+            BucketCreationMetaData metaData = ImagePoolHelper.getBucketCreationMetaData(
+                    widthClass, heightClass, type, mPolicy);
             if (metaData == null) {
-                return defaultImageImpl(w, h, type, freedCallback);
+                return null;
+            }
+            bucket = new Bucket(metaData);
+            if (!mPool.compareAndSet(index, null, bucket)) {
+                bucket = mPool.get(index);
             }
+        }
+        return bucket;
+    }
 
-            final Bucket existingBucket = ImagePoolHelper.getBucket(mPool, metaData, mPolicy);
-            final BufferedImage img =
-                    ImagePoolHelper.getBufferedImage(existingBucket, metaData, mImagePoolStats);
-            if (img == null) {
-                return defaultImageImpl(w, h, type, freedCallback);
+    /**
+     * Drops the images of the buckets, other than the given one, that have not been used for
+     * {@link #COLD_BUCKET_NANOS}. Returns whether any image was dropped.
+     */
+    private boolean evictColdBuckets(Bucket except) {
+        long now = System.nanoTime();
+        boolean evicted = false;
+        for (int i = 0; i < mPool.length(); i++) {
+            Bucket bucket = mPool.get(i);
+            if (bucket == null || bucket == except) {
+                continue;
+            }
+            synchronized (bucket) {
+                if (now - bucket.mLastUsedNanos < COLD_BUCKET_NANOS) {
+                    continue;
+                }
+                BucketCreationMetaData metaData = bucket.mMetaData;
+                for (int count = bucket.evict(); count > 0; count--) {
+                    mImagePoolStats.recordBucketEviction(metaData.mWidth, metaData.mHeight);
+                    evicted = true;
+                }
             }
+        }
+        return evicted;
+    }
 
-            // Clear the image. - is this necessary?
-            if (img.getRaster().getDataBuffer().getDataType() == java.awt.image.DataBuffer.TYPE_INT) {
-                Arrays.fill(((DataBufferInt)img.getRaster().getDataBuffer()).getData(), 0);
+    @Override
+    public ImagePoolStatistics getStatistics() {
+        List<BucketStatistics> buckets = new ArrayList<>();
+        for (int i = 0; i < mPool.length(); i++) {
+            Bucket bucket = mPool.get(i);
+            if (bucket == null) {
+                continue;
             }
+            BucketCreationMetaData metaData = bucket.mMetaData;
+            synchronized (bucket) {
+                buckets.add(new BucketStatistics(metaData.mWidth, metaData.mHeight,
+                        metaData.mType, bucket.mHitCount, bucket.mMissCount, bucket.size()));
+            }
+        }
+        return new ImagePoolStatistics(buckets, mImagePoolStats.getAllocatedTotalBytes(),
+                mExactSizeCachedBytes.get(), mImagePoolStats.getAllocatedOutsidePoolBytes(),
+                mImagePoolStats.getTooBigForCacheCount(), mImagePoolStats.getClearTimeNanos(),
+                mImagePoolStats.getRequestHistogram());
+    }
 
-            return prepareImage(
-                    new ImageImpl(w, h, img, metaData.mOrientation),
-                    true,
-                    img,
-                    existingBucket,
-                    freedCallback);
-        } finally {
-            mReentrantLock.writeLock().unlock();
+    @VisibleForTesting
+    List<Bucket> getBuckets() {
+        List<Bucket> buckets = new ArrayList<>();
+        for (int i = 0; i < mPool.length(); i++) {
+            Bucket bucket = mPool.get(i);
+            if (bucket != null) {
+                buckets.add(bucket);
+            }
+        }
+        return buckets;
+    }
+
+    @Override
+    public BufferedImage acquireBufferedImage(int w, int h, int type) {
+        return acquireBufferedImage(w, h, type, true);
+    }
+
+    @Override
+    public BufferedImage acquireBufferedImage(int w, int h, int type, boolean clear) {
+        Magazine magazine = getMagazine();
+        BufferedImage[] images = magazine.mImages;
+        for (int i = 0; i < images.length; i++) {
+            BufferedImage img = images[i];
+            if (img != null && img.getWidth() == w && img.getHeight() == h &&
+                    ImagePoolHelper.getType(img) == type) {
+                images[i] = null;
+                long size = getByteSize(img);
+                magazine.mByteSize -= size;
+                mExactSizeCachedBytes.addAndGet(-size);
+                if (clear) {
+                    clearImage(img, w, h);
+                }
+                return img;
+            }
+        }
+
+        Bucket bucket = mExactSizePool.get(ImagePoolHelper.toKey(w, h, type));
+        if (bucket != null) {
+            BufferedImage img;
+            synchronized (bucket) {
+                img = bucket.remove();
+                while (img == null && !bucket.isEmpty()) {
+                    img = bucket.remove();
+                }
+            }
+            if (img != null) {
+                mExactSizeCachedBytes.addAndGet(-getByteSize(img));
+                if (clear) {
+                    clearImage(img, w, h);
+                }
+                return img;
+            }
+        }
+        mImagePoolStats.recordAllocOutsidePool(w, h);
+
+        if (mPolicy.mOffHeap) {
+            BufferedImage img = ImagePoolHelper.createOffHeapImage(w, h, type);
+            if (img != null) {
+                return img;
+            }
+        }
+        return new BufferedImage(w, h, type);
+    }
+
+    @Override
+    public void release(BufferedImage image) {
+        Magazine magazine = getMagazine();
+        BufferedImage[] images = magazine.mImages;
+        int freeIndex = -1;
+        for (int i = 0; i < images.length; i++) {
+            if (images[i] == image) {
+                // Already released
+                return;
+            }
+            if (images[i] == null && freeIndex == -1) {
+                freeIndex = i;
+            }
+        }
+
+        long key = ImagePoolHelper.toKey(image.getWidth(), image.getHeight(),
+                ImagePoolHelper.getType(image));
+        Bucket bucket = mExactSizePool.get(key);
+        if (bucket != null && bucket.contains(image)) {
+            // Already released
+            return;
+        }
+
+        long size = getByteSize(image);
+        if (!reserveExactSizeBytes(size)) {
+            mImagePoolStats.tooBigForCache();
+            return;
+        }
+
+        if (freeIndex != -1) {
+            images[freeIndex] = image;
+            magazine.mByteSize += size;
+            return;
+        }
+        if (bucket == null) {
+            bucket = mExactSizePool.computeIfAbsent(key, k -> new Bucket());
+        }
+        bucket.offer(image);
+    }
+
+    /**
+     * Accounts for size more bytes in the cache of the released images. Returns false, without
+     * changing the count, if they do not fit in the policy's maximum size.
+     */
+    private boolean reserveExactSizeBytes(long size) {
+        long maxSize = mPolicy.mExactSizeMaxCacheSize;
+        if (mExactSizeCachedBytes.addAndGet(size) <= maxSize) {
+            return true;
+        }
+
+        // The count includes the images of the buckets that have been garbage collected and the
+        // magazines of the threads that died. Count again.
+        long cachedSize = 0;
+        for (Bucket bucket : mExactSizePool.values()) {
+            cachedSize += bucket.pruneAndGetByteSize();
+        }
+        Iterator<Magazine> iterator = mMagazines.iterator();
+        while (iterator.hasNext()) {
+            Magazine magazine = iterator.next();
+            Thread thread = magazine.mThread.get();
+            if (thread == null || !thread.isAlive()) {
+                iterator.remove();
+            } else {
+                cachedSize += magazine.mByteSize;
+            }
+        }
+        mExactSizeCachedBytes.set(cachedSize + size);
+        if (cachedSize + size <= maxSize) {
+            return true;
+        }
+        mExactSizeCachedBytes.addAndGet(-size);
+        return false;
+    }
+
+    /**
+     * Returns the magazine of the current thread, emptied if the pool was disposed since the
+     * thread last used it.
+     */
+    private Magazine getMagazine() {
+        Magazine magazine = mMagazine.get();
+        int generation = mGeneration.get();
+        if (magazine.mGeneration != generation) {
+            Arrays.fill(magazine.mImages, null);
+            magazine.mByteSize = 0;
+            magazine.mGeneration = generation;
+            mMagazines.add(magazine);
+        }
+        return magazine;
+    }
+
+    private static long getByteSize(BufferedImage img) {
+        return (long) img.getWidth() * img.getHeight() *
+                ImagePoolStatsProdImpl.ESTIMATED_PIXEL_BYTES;
+    }
+
+    /**
+     * Clears the w x h area at the top left of the image.
+     */
+    private void clearImage(BufferedImage img, int w, int h) {
+        long start = System.nanoTime();
+        doClearImage(img, w, h);
+        mImagePoolStats.recordClearTime(System.nanoTime() - start);
+    }
+
+    private static void doClearImage(BufferedImage img, int w, int h) {
+        DataBuffer buffer = img.getRaster().getDataBuffer();
+        int stride = img.getWidth();
+        if (buffer instanceof DataBufferInt) {
+            int[] data = ((DataBufferInt) buffer).getData();
+            if (w == stride) {
+                Arrays.fill(data, 0, w * h, 0);
+                return;
+            }
+            for (int y = 0, start = 0; y < h; y++, start += stride) {
+                Arrays.fill(data, start, start + w, 0);
+            }
+        } else if (buffer instanceof DirectDataBuffer) {
+            DirectDataBuffer data = (DirectDataBuffer) buffer;
+            if (w == stride) {
+                data.clear(0, w * h);
+                return;
+            }
+            for (int y = 0, start = 0; y < h; y++, start += stride) {
+                data.clear(start, w);
+            }
         }
     }
 
@@ -92,29 +418,24 @@ class ImagePoolImpl implements ImagePool {
      * Add statistics as well as dispose behaviour before returning image.
      */
     private Image prepareImage(
-            Image image,
+            ImageImpl image,
             boolean offerBackToBucket,
             @Nullable BufferedImage img,
             @Nullable Bucket existingBucket,
             @Nullable Consumer<BufferedImage> freedCallback) {
         final Integer imageHash = image.hashCode();
+        final int generation = mGeneration.get();
         mImagePoolStats.acquiredImage(imageHash);
         FinalizablePhantomReference<Image> reference =
                 new FinalizablePhantomReference<ImagePool.Image>(image, mFinalizableReferenceQueue) {
                     @Override
                     public void finalizeReferent() {
-                        // This method might be called twice if the user has manually called the free() method. The second call will have no effect.
+                        // This method might be called twice if the user has manually called the close() method. The second call will have no effect.
                         if (mReferences.remove(this)) {
                             mImagePoolStats.disposeImage(imageHash);
-                            if (offerBackToBucket) {
-                                if (!mImagePoolStats.fitsMaxCacheSize(img.getWidth(), img.getHeight(),
-                                        mPolicy.mBucketMaxCacheSize)) {
-                                    mImagePoolStats.tooBigForCache();
-                                    // Adding this back would go over the max cache size we set for ourselves. Release it.
-                                    return;
-                                }
-
-                                // else stat does not change.
+                            // The image is still counted in the cache size, unless the pool was
+                            // disposed since it was acquired. In that case, drop it.
+                            if (offerBackToBucket && generation == mGeneration.get()) {
                                 existingBucket.offer(img);
                             }
                             if (freedCallback != null) {
@@ -124,6 +445,11 @@ class ImagePoolImpl implements ImagePool {
                     }
                 };
         mReferences.add(reference);
+        image.setCloseAction(() -> {
+            // Give the image back now, the reference will not be enqueued once cleared.
+            reference.finalizeReferent();
+            reference.clear();
+        });
         return image;
     }
 
@@ -141,15 +467,29 @@ class ImagePoolImpl implements ImagePool {
 
     @Override
     public void dispose() {
-        mReentrantLock.writeLock().lock();
-        try {
-            for (Bucket bucket : mPool.values()) {
+        mGeneration.incrementAndGet();
+        for (int i = 0; i < mPool.length(); i++) {
+            Bucket bucket = mPool.get(i);
+            if (bucket != null) {
                 bucket.clear();
             }
-            mImagePoolStats.clear();
-        } finally {
-            mReentrantLock.writeLock().unlock();
         }
+        mExactSizePool.clear();
+        mMagazines.clear();
+        mExactSizeCachedBytes.set(0);
+        mImagePoolStats.clear();
+    }
+
+    /**
+     * Images released by a thread, only used by that thread.
+     */
+    private static class Magazine {
+        private final BufferedImage[] mImages = new BufferedImage[MAGAZINE_SIZE];
+        private final WeakReference<Thread> mThread = new WeakReference<>(Thread.currentThread());
+        /** Generation of the pool the images belong to, the magazine starts out of date. */
+        private int mGeneration = -1;
+        /** Bytes held by the magazine, read by the other threads to account for the cache size. */
+        private volatile long mByteSize;
     }
 
     /* package private */ void printStat() {
@@ -22,6 +22,12 @@ import android.util.imagepool.ImagePool.ImagePoolPolicy;
 
 public class ImagePoolProvider {
 
+    /**
+     * System property to set to true to store the pixels of the images of
+     * {@link ImagePool#acquireBufferedImage(int, int, int)} outside of the Java heap.
+     */
+    public static final String OFF_HEAP_PROPERTY = "layoutlib.imagepool.offheap";
+
     private static ImagePool sInstance;
 
     @NotNull
@@ -31,10 +37,20 @@ public class ImagePoolProvider {
             ImagePoolPolicy policy = new ImagePoolPolicy(
                     new int[]{100, 200, 400, 600, 800, 1000, 1600, 3200},
                     new int[]{  3,   3,   2,   2,   2,    1,    1,    1},
-                    10_000_000L); // 10 MB
+                    10_000_000L, // 10 MB
+                    64_000_000L, // 64 MB, a few full screen images
+                    Boolean.getBoolean(OFF_HEAP_PROPERTY));
 
             sInstance = new ImagePoolImpl(policy);
         }
         return sInstance;
     }
+
+    /**
+     * Returns a snapshot of the statistics of the default {@link ImagePool}.
+     */
+    @NotNull
+    public static ImagePoolStatistics getStatistics() {
+        return get().getStatistics();
+    }
 }
\ No newline at end of file
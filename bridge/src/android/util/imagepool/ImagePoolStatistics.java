@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.util.imagepool;
+
+import com.android.tools.layoutlib.annotations.NotNull;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Snapshot of the statistics of an {@link ImagePool}, see {@link ImagePool#getStatistics()}.
+ * <p/>
+ * The counts start over when the pool is disposed.
+ */
+public final class ImagePoolStatistics {
+
+    /**
+     * Statistics of the bucket of the images of {@link ImagePool#acquire(int, int, int)} of a
+     * given size and type.
+     */
+    public static final class BucketStatistics {
+        private final int mWidth;
+        private final int mHeight;
+        private final int mType;
+        private final long mHitCount;
+        private final long mMissCount;
+        private final int mCachedImageCount;
+
+        BucketStatistics(int width, int height, int type, long hitCount, long missCount,
+                int cachedImageCount) {
+            mWidth = width;
+            mHeight = height;
+            mType = type;
+            mHitCount = hitCount;
+            mMissCount = missCount;
+            mCachedImageCount = cachedImageCount;
+        }
+
+        public int getWidth() {
+            return mWidth;
+        }
+
+        public int getHeight() {
+            return mHeight;
+        }
+
+        /** Returns the {@link java.awt.image.BufferedImage} type of the images. */
+        public int getType() {
+            return mType;
+        }
+
+        /** Returns the number of images acquired from the bucket without creating any image. */
+        public long getHitCount() {
+            return mHitCount;
+        }
+
+        /**
+         * Returns the number of images acquired when the bucket was empty, whether it could be
+         * populated or the image had to be allocated outside of the pool.
+         */
+        public long getMissCount() {
+            return mMissCount;
+        }
+
+        /**
+         * Returns the number of images waiting in the bucket. Some of them may have been garbage
+         * collected already.
+         */
+        public int getCachedImageCount() {
+            return mCachedImageCount;
+        }
+    }
+
+    private final List<BucketStatistics> mBuckets;
+    private final long mBucketBytes;
+    private final long mExactSizeCachedBytes;
+    private final long mAllocatedOutsidePoolBytes;
+    private final int mTooBigForCacheCount;
+    private final long mClearTimeNanos;
+    private final long[] mRequestHistogram;
+
+    ImagePoolStatistics(@NotNull List<BucketStatistics> buckets, long bucketBytes,
+            long exactSizeCachedBytes, long allocatedOutsidePoolBytes, int tooBigForCacheCount,
+            long clearTimeNanos, @NotNull long[] requestHistogram) {
+        mBuckets = Collections.unmodifiableList(buckets);
+        mBucketBytes = bucketBytes;
+        mExactSizeCachedBytes = exactSizeCachedBytes;
+        mAllocatedOutsidePoolBytes = allocatedOutsidePoolBytes;
+        mTooBigForCacheCount = tooBigForCacheCount;
+        mClearTimeNanos = clearTimeNanos;
+        mRequestHistogram = requestHistogram;
+    }
+
+    @NotNull
+    public List<BucketStatistics> getBuckets() {
+        return mBuckets;
+    }
+
+    /** Returns the bytes of the images created for the buckets, in use or not. */
+    public long getBucketBytes() {
+        return mBucketBytes;
+    }
+
+    /**
+     * Returns the bytes of the images given back with {@link ImagePool#release} and kept for
+     * reuse.
+     */
+    public long getExactSizeCachedBytes() {
+        return mExactSizeCachedBytes;
+    }
+
+    /** Returns the bytes of the images that had to be allocated outside of the pool. */
+    public long getAllocatedOutsidePoolBytes() {
+        return mAllocatedOutsidePoolBytes;
+    }
+
+    /** Returns the number of times an image could not be kept because of the cache size. */
+    public int getTooBigForCacheCount() {
+        return mTooBigForCacheCount;
+    }
+
+    /** Returns the time spent clearing the images before handing them out. */
+    public long getClearTimeNanos() {
+        return mClearTimeNanos;
+    }
+
+    /**
+     * Returns the number of images requested by size. Index i counts the requests whose biggest
+     * dimension is in (2^(i-1), 2^i], the last index also counts all the bigger ones.
+     */
+    @NotNull
+    public long[] getRequestHistogram() {
+        return mRequestHistogram.clone();
+    }
+}
@@ -24,6 +24,9 @@ interface ImagePoolStats {
 
     void recordBucketCreation(int widthBucket, int heightBucket);
 
+    /** Records that an image created with {@link #recordBucketCreation} was dropped. */
+    void recordBucketEviction(int widthBucket, int heightBucket);
+
     boolean fitsMaxCacheSize(int width, int height, long maxCacheSize);
 
     void clear();
@@ -32,6 +35,9 @@ interface ImagePoolStats {
 
     void recordAllocOutsidePool(int width, int height);
 
+    /** Records the time spent clearing an image before handing it out. */
+    void recordClearTime(long nanos);
+
     void tooBigForCache();
 
     void acquiredImage(Integer imageHash);
@@ -41,4 +47,19 @@ interface ImagePoolStats {
     void start();
 
     String getStatistic();
+
+    /**
+     * Returns the number of images requested by size. Index i counts the requests whose biggest
+     * dimension is in (2^(i-1), 2^i], the last index also counts all the bigger ones.
+     */
+    long[] getRequestHistogram();
+
+    /** Returns the bytes of the images created for the buckets. */
+    long getAllocatedTotalBytes();
+
+    long getAllocatedOutsidePoolBytes();
+
+    int getTooBigForCacheCount();
+
+    long getClearTimeNanos();
 }
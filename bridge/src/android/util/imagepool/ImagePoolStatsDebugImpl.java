@@ -34,7 +34,6 @@ public class ImagePoolStatsDebugImpl extends ImagePoolStatsProdImpl {
     // Used for deugging purposes only.
     private final Map<Integer, String> mCallStack = new HashMap<>();
     private long mRequestedTotalBytes = 0;
-    private long mAllocatedOutsidePoolBytes = 0;
 
     // Used for gc-related stats.
     private long mPreviousGcCollection = 0;
@@ -56,8 +55,7 @@ public class ImagePoolStatsDebugImpl extends ImagePoolStatsProdImpl {
         super.clear();
 
         mRequestedTotalBytes = 0;
-        mAllocatedOutsidePoolBytes = 0;
-        mTooBigForPoolCount = 0;
+        mTooBigForPoolCount.set(0);
         mCallStack.clear();
     }
 
@@ -69,14 +67,10 @@ public class ImagePoolStatsDebugImpl extends ImagePoolStatsProdImpl {
     /** Used for Debugging only */
     @Override
     public void recordBucketRequest(int w, int h) {
+        super.recordBucketRequest(w, h);
         mRequestedTotalBytes += (w * h * ESTIMATED_PIXEL_BYTES);
     }
 
-    @Override
-    public void recordAllocOutsidePool(int width, int height) {
-        mAllocatedOutsidePoolBytes += (width * height * ESTIMATED_PIXEL_BYTES);
-    }
-
     @Override
     public void acquiredImage(Integer imageHash) {
         for (int i = 1; i < Thread.currentThread().getStackTrace().length; i++) {
@@ -151,14 +145,14 @@ public class ImagePoolStatsDebugImpl extends ImagePoolStatsProdImpl {
         builder.append(mRequestedTotalBytes / 1_000_000);
         builder.append(" MB\n");
         builder.append(" allocated (in pool)     : ");
-        builder.append(mAllocateTotalBytes / 1_000_000);
+        builder.append(mAllocateTotalBytes.get() / 1_000_000);
         builder.append(" MB\n");
         builder.append(" allocated (out of pool) : ");
-        builder.append(mAllocatedOutsidePoolBytes / 1_000_000);
+        builder.append(getAllocatedOutsidePoolBytes() / 1_000_000);
         builder.append(" MB\n");
 
-        double percent = (1.0 - (double) mRequestedTotalBytes / (mAllocateTotalBytes +
-                mAllocatedOutsidePoolBytes));
+        double percent = (1.0 - (double) mRequestedTotalBytes / (mAllocateTotalBytes.get() +
+                getAllocatedOutsidePoolBytes()));
         if (percent < 0.0) {
             builder.append(" saved : ");
             builder.append(-1.0 * percent);
@@ -184,9 +178,26 @@ public class ImagePoolStatsDebugImpl extends ImagePoolStatsProdImpl {
         }
 
         builder.append("Number of times requested image didn't fit the pool : ");
-        builder.append(mTooBigForPoolCount);
+        builder.append(mTooBigForPoolCount.get());
         builder.append("\n");
 
+        builder.append("Requested images by size\n");
+        long[] histogram = getRequestHistogram();
+        for (int i = 0; i < histogram.length; i++) {
+            if (histogram[i] > 0) {
+                if (i == histogram.length - 1) {
+                    builder.append(" > ");
+                    builder.append(1 << (i - 1));
+                } else {
+                    builder.append(" <= ");
+                    builder.append(1 << i);
+                }
+                builder.append(" px : ");
+                builder.append(histogram[i]);
+                builder.append("\n");
+            }
+        }
+
         return builder.toString();
     }
 }
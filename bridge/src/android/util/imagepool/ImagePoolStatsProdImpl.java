@@ -19,41 +19,73 @@ package android.util.imagepool;
 import com.android.tools.layoutlib.annotations.NotNull;
 import com.android.tools.layoutlib.annotations.VisibleForTesting;
 
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
 class ImagePoolStatsProdImpl implements ImagePoolStats {
 
     static int ESTIMATED_PIXEL_BYTES = 4;
+    /** Number of sizes of {@link #getRequestHistogram()}, the last one is for more than 8192 */
+    private static final int HISTOGRAM_SIZE = 15;
 
-    // Used for determining how many buckets can be created.
-    @VisibleForTesting long mAllocateTotalBytes = 0;
-    @VisibleForTesting int mTooBigForPoolCount = 0;
+    // Used for determining how many buckets can be created. The pool calls the stats from any
+    // thread without a global lock.
+    @VisibleForTesting final AtomicLong mAllocateTotalBytes = new AtomicLong();
+    @VisibleForTesting final AtomicInteger mTooBigForPoolCount = new AtomicInteger();
+    private final AtomicLongArray mRequestHistogram = new AtomicLongArray(HISTOGRAM_SIZE);
+    private final AtomicLong mAllocatedOutsidePoolBytes = new AtomicLong();
+    private final AtomicLong mClearTimeNanos = new AtomicLong();
 
     /** Used for policy */
     @Override
     public void recordBucketCreation(int widthBucket, int heightBucket) {
-        mAllocateTotalBytes += (widthBucket * heightBucket * ESTIMATED_PIXEL_BYTES);
+        mAllocateTotalBytes.addAndGet(widthBucket * heightBucket * ESTIMATED_PIXEL_BYTES);
+    }
+
+    @Override
+    public void recordBucketEviction(int widthBucket, int heightBucket) {
+        mAllocateTotalBytes.addAndGet(-widthBucket * heightBucket * ESTIMATED_PIXEL_BYTES);
     }
 
     @Override
     public boolean fitsMaxCacheSize(int width, int height, long maxCacheSize) {
-        long newTotal = mAllocateTotalBytes + (width * height * ESTIMATED_PIXEL_BYTES);
+        long newTotal = mAllocateTotalBytes.get() + (width * height * ESTIMATED_PIXEL_BYTES);
         return newTotal <= maxCacheSize;
     }
 
     @Override
     public void tooBigForCache() {
-        mTooBigForPoolCount++;
+        mTooBigForPoolCount.incrementAndGet();
     }
 
     @Override
     public void clear() {
-        mAllocateTotalBytes = 0;
+        mAllocateTotalBytes.set(0);
+        mAllocatedOutsidePoolBytes.set(0);
+        mClearTimeNanos.set(0);
+        for (int i = 0; i < HISTOGRAM_SIZE; i++) {
+            mRequestHistogram.set(i, 0);
+        }
+    }
+
+    @Override
+    public void recordBucketRequest(int w, int h) {
+        int size = Math.max(w, h);
+        // Index of the smallest power of 2 that is >= size
+        int index = size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+        mRequestHistogram.incrementAndGet(Math.min(index, HISTOGRAM_SIZE - 1));
     }
 
     @Override
-    public void recordBucketRequest(int w, int h) { }
+    public void recordAllocOutsidePool(int width, int height) {
+        mAllocatedOutsidePoolBytes.addAndGet((long) width * height * ESTIMATED_PIXEL_BYTES);
+    }
 
     @Override
-    public void recordAllocOutsidePool(int width, int height) { }
+    public void recordClearTime(long nanos) {
+        mClearTimeNanos.addAndGet(nanos);
+    }
 
     @Override
     public void acquiredImage(@NotNull Integer imageHash) { }
@@ -66,4 +98,33 @@ class ImagePoolStatsProdImpl implements ImagePoolStats {
 
     @Override
     public String getStatistic() { return ""; }
+
+    @Override
+    public long[] getRequestHistogram() {
+        long[] histogram = new long[HISTOGRAM_SIZE];
+        for (int i = 0; i < HISTOGRAM_SIZE; i++) {
+            histogram[i] = mRequestHistogram.get(i);
+        }
+        return histogram;
+    }
+
+    @Override
+    public long getAllocatedTotalBytes() {
+        return mAllocateTotalBytes.get();
+    }
+
+    @Override
+    public long getAllocatedOutsidePoolBytes() {
+        return mAllocatedOutsidePoolBytes.get();
+    }
+
+    @Override
+    public int getTooBigForCacheCount() {
+        return mTooBigForPoolCount.get();
+    }
+
+    @Override
+    public long getClearTimeNanos() {
+        return mClearTimeNanos.get();
+    }
 }
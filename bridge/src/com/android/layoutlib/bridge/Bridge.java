@@ -19,6 +19,7 @@ package com.android.layoutlib.bridge;
 import com.android.ide.common.rendering.api.Capability;
 import com.android.ide.common.rendering.api.DrawableParams;
 import com.android.ide.common.rendering.api.Features;
+import com.android.ide.common.rendering.api.ILayoutPullParser;
 import com.android.ide.common.rendering.api.LayoutLog;
 import com.android.ide.common.rendering.api.RenderSession;
 import com.android.ide.common.rendering.api.ResourceNamespace;
@@ -27,11 +28,16 @@ import com.android.ide.common.rendering.api.Result;
 import com.android.ide.common.rendering.api.Result.Status;
 import com.android.ide.common.rendering.api.SessionParams;
 import com.android.layoutlib.bridge.android.RenderParamsFlags;
+import com.android.layoutlib.bridge.impl.DelegateManager;
+import com.android.layoutlib.bridge.impl.ParserFactory;
+import com.android.layoutlib.bridge.impl.RecordedLayout;
+import com.android.layoutlib.bridge.impl.RenderAction;
 import com.android.layoutlib.bridge.impl.RenderDrawable;
 import com.android.layoutlib.bridge.impl.RenderSessionImpl;
 import com.android.layoutlib.bridge.util.DynamicIdMap;
 import com.android.ninepatch.NinePatchChunk;
 import com.android.resources.ResourceType;
+import com.android.tools.layoutlib.annotations.NotNull;
 import com.android.tools.layoutlib.annotations.Nullable;
 import com.android.tools.layoutlib.create.MethodAdapter;
 import com.android.tools.layoutlib.create.OverrideMethod;
@@ -54,13 +60,17 @@ import java.io.File;
 import java.lang.ref.SoftReference;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EnumMap;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.WeakHashMap;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 
 import libcore.io.MemoryMappedFile_Delegate;
 
@@ -88,6 +98,14 @@ public final class Bridge extends com.android.ide.common.rendering.api.Bridge {
     /**
      * Lock to ensure only one rendering/inflating happens at a time.
      * This is due to some singleton in the Android framework.
+     * <p/>
+     * Besides the layoutlib state (the current context in {@link RenderAction}, the current log,
+     * the {@link ParserFactory} and the delegate tables), the framework itself keeps process-wide
+     * state such as {@code Resources.getSystem()}, {@code WindowManagerGlobal}, the
+     * {@code ViewConfiguration} cache, the {@code Choreographer} instance and the
+     * {@code AnimationHandler}. None of these can be scoped to a session, so sessions loaded in the
+     * same class loader can not render concurrently. Use separate class loaders to render in
+     * parallel.
      */
     private final static ReentrantLock sLock = new ReentrantLock();
 
@@ -142,9 +160,10 @@ public final class Bridge extends com.android.ide.common.rendering.api.Bridge {
     };
 
     /**
-     * Current log.
+     * Current log. This is only written by the thread holding {@link #sLock} but it can be read
+     * from any thread (finalizers, animation threads), so it needs to be volatile.
      */
-    private static LayoutLog sCurrentLog = sDefaultLog;
+    private static volatile LayoutLog sCurrentLog = sDefaultLog;
 
     public static boolean sIsTypefaceInitialized;
 
@@ -179,6 +198,7 @@ public final class Bridge extends com.android.ide.common.rendering.api.Bridge {
         sEnumValueMap = enumValueMap;
 
         BridgeAssetManager.initSystem();
+        DelegateManager.startReclaimer();
 
         // When DEBUG_LAYOUT is set and is not 0 or false, setup a default listener
         // on static (native) methods which prints the signature on the console and
@@ -366,6 +386,7 @@ public final class Bridge extends com.android.ide.common.rendering.api.Bridge {
         }
         sProject9PatchCache.clear();
         sProjectBitmapCache.clear();
+        DelegateManager.stopReclaimer();
 
         return true;
     }
@@ -383,9 +404,15 @@ public final class Bridge extends com.android.ide.common.rendering.api.Bridge {
      */
     @Override
     public RenderSession createSession(SessionParams params) {
+        return createSession(params, params.getLayoutDescription());
+    }
+
+    @NotNull
+    /*package*/ static RenderSession createSession(@NotNull SessionParams params,
+            @NotNull ILayoutPullParser layoutParser) {
         try {
             Result lastResult;
-            RenderSessionImpl scene = new RenderSessionImpl(params);
+            RenderSessionImpl scene = new RenderSessionImpl(params, layoutParser);
             try {
                 prepareThread();
                 lastResult = scene.init(params.getTimeout());
@@ -394,8 +421,11 @@ public final class Bridge extends com.android.ide.common.rendering.api.Bridge {
 
                     boolean doNotRenderOnCreate = Boolean.TRUE.equals(
                             params.getFlag(RenderParamsFlags.FLAG_DO_NOT_RENDER_ON_CREATE));
+                    boolean measureOnly = Boolean.TRUE.equals(
+                            params.getFlag(RenderParamsFlags.FLAG_KEY_MEASURE_ONLY));
                     if (lastResult.isSuccess() && !doNotRenderOnCreate) {
-                        lastResult = scene.render(true /*freshRender*/);
+                        lastResult = measureOnly ? scene.measure() :
+                                scene.render(true /*freshRender*/);
                     }
                 }
             } finally {
@@ -415,6 +445,77 @@ public final class Bridge extends com.android.ide.common.rendering.api.Bridge {
         }
     }
 
+    /**
+     * Starts a layout session for each of the given {@link SessionParams}, as done by
+     * {@link #createSession(SessionParams)}. This is typically used to render or, with
+     * {@link RenderParamsFlags#FLAG_KEY_MEASURE_ONLY}, to measure the same layout for multiple
+     * configurations.
+     * <p/>
+     * The params sharing the same layout description are only parsed once, see
+     * {@link RecordedLayout}. The sessions are created one after the other since they all need
+     * the render lock, use a {@link BridgePool} to create them in parallel.
+     *
+     * @return the sessions, in the same order as the params.
+     */
+    @NotNull
+    public List<RenderSession> createSessions(@NotNull List<SessionParams> paramsList) {
+        return createSessions(paramsList, null);
+    }
+
+    /**
+     * Same as {@link #createSessions(List)} but all the sessions inflate the given layout instead
+     * of the layout description of their params.
+     *
+     * @param layoutDescription the layout to inflate, or null to use the layout description of
+     *     each params.
+     *
+     * @return the sessions, in the same order as the params.
+     */
+    @NotNull
+    public List<RenderSession> createSessions(@NotNull List<SessionParams> paramsList,
+            @Nullable ILayoutPullParser layoutDescription) {
+        Map<ILayoutPullParser, Object> layouts = new IdentityHashMap<>();
+        List<RenderSession> sessions = new ArrayList<>(paramsList.size());
+        for (SessionParams params : paramsList) {
+            ILayoutPullParser parser =
+                    layoutDescription != null ? layoutDescription : params.getLayoutDescription();
+            // The recording, or the error that prevented it.
+            Object layout = layouts.computeIfAbsent(parser, p -> {
+                try {
+                    return RecordedLayout.record(p);
+                } catch (Throwable t) {
+                    return ERROR_UNKNOWN.createResult(t.getMessage(), t);
+                }
+            });
+
+            if (layout instanceof RecordedLayout) {
+                sessions.add(createSession(params, ((RecordedLayout) layout).newParser()));
+            } else {
+                sessions.add(new BridgeRenderSession(null, (Result) layout));
+            }
+        }
+        return sessions;
+    }
+
+    /**
+     * Same as {@link #createSessions(List)} but each session inflates a new parser from the given
+     * factory. This is used by {@link BridgePool}, which records the layout once for all its
+     * workers.
+     *
+     * @param layoutFactory returns a new parser, that was not read yet, on each call.
+     *
+     * @return the sessions, in the same order as the params.
+     */
+    @NotNull
+    public List<RenderSession> createSessions(@NotNull List<SessionParams> paramsList,
+            @NotNull Supplier<ILayoutPullParser> layoutFactory) {
+        List<RenderSession> sessions = new ArrayList<>(paramsList.size());
+        for (SessionParams params : paramsList) {
+            sessions.add(createSession(params, layoutFactory.get()));
+        }
+        return sessions;
+    }
+
     @Override
     public Result renderDrawable(DrawableParams params) {
         try {
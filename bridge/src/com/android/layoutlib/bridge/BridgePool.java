@@ -0,0 +1,436 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.layoutlib.bridge;
+
+import com.android.ide.common.rendering.api.Capability;
+import com.android.ide.common.rendering.api.DrawableParams;
+import com.android.ide.common.rendering.api.ILayoutPullParser;
+import com.android.ide.common.rendering.api.LayoutLog;
+import com.android.ide.common.rendering.api.RenderSession;
+import com.android.ide.common.rendering.api.Result;
+import com.android.ide.common.rendering.api.SessionParams;
+import com.android.layoutlib.bridge.impl.RecordedLayout;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+import static com.android.ide.common.rendering.api.Result.Status.ERROR_UNKNOWN;
+
+/**
+ * Implementation of the bridge API that dispatches the work to a pool of bridges.
+ * <p/>
+ * Each worker must be a {@link Bridge} loaded in its own class loader. This gives every worker
+ * its own copy of the layoutlib and framework static state (see {@link Bridge#getLock()}), so
+ * the workers can render in parallel. The class loaders are owned by the caller.
+ * <p/>
+ * The project classes (custom views) must be loaded against the worker that renders them. The
+ * pool only picks the worker when a request is dispatched, so the methods taking a
+ * {@code paramsForWorker} function give it the class loader of the picked worker, and the caller
+ * returns the params to send to that worker, typically with a {@code LayoutlibCallback} loading
+ * the project classes from a class loader whose parent is the given one.
+ * {@link #createSession(SessionParams)} and {@link #renderDrawable(DrawableParams)} send the
+ * params as is, so they can only be used when the callback does not depend on the worker.
+ * <p/>
+ * Sessions and drawables are routed to the least loaded worker. Requests for a project stick to
+ * the worker that last handled the project as long as it is not busier than the others, which
+ * keeps the per-project caches of the worker warm. Once created, a {@link RenderSession} is bound
+ * to the worker that created it.
+ * <p/>
+ * {@link #createSessions(List, BiFunction)} spreads a batch of sessions over all the workers,
+ * without project affinity so that the chunks of a batch go to different workers.
+ */
+public final class BridgePool extends com.android.ide.common.rendering.api.Bridge {
+
+    /**
+     * How many more pending requests than the least loaded worker a worker can have and still
+     * be picked for a project it already handled.
+     */
+    private static final int AFFINITY_SLACK = 1;
+
+    private static final class Worker {
+        private final com.android.ide.common.rendering.api.Bridge mBridge;
+        private final AtomicInteger mPending = new AtomicInteger();
+        /** The android.view.View class as seen by the worker. Lazily loaded. */
+        private Class<?> mViewClass;
+        /** {@link Bridge#createSessions(List, Supplier)} of the worker. Lazily loaded. */
+        private Method mCreateSessions;
+
+        private Worker(@NonNull com.android.ide.common.rendering.api.Bridge bridge) {
+            mBridge = bridge;
+        }
+
+        @NonNull
+        private ClassLoader getClassLoader() {
+            return mBridge.getClass().getClassLoader();
+        }
+
+        private synchronized boolean isViewFromWorker(@Nullable Object viewObject) {
+            if (viewObject == null) {
+                return false;
+            }
+            if (mViewClass == null) {
+                try {
+                    mViewClass = Class.forName("android.view.View", false, getClassLoader());
+                } catch (ClassNotFoundException e) {
+                    return false;
+                }
+            }
+            return mViewClass.isInstance(viewObject);
+        }
+
+        @SuppressWarnings("unchecked")
+        @NonNull
+        private List<RenderSession> createSessions(@NonNull List<SessionParams> paramsList,
+                @NonNull Supplier<ILayoutPullParser> layoutFactory)
+                throws ReflectiveOperationException {
+            synchronized (this) {
+                if (mCreateSessions == null) {
+                    // The worker Bridge class comes from another class loader, the
+                    // RecordedLayout is handed over through JDK and API types only.
+                    mCreateSessions = mBridge.getClass().getMethod("createSessions", List.class,
+                            Supplier.class);
+                }
+            }
+            return (List<RenderSession>) mCreateSessions.invoke(mBridge, paramsList,
+                    layoutFactory);
+        }
+    }
+
+    private final Worker[] mWorkers;
+    /** Maps a project key to the worker that last handled it. */
+    private final Map<Object, Worker> mProjectAffinity = new WeakHashMap<>();
+
+    /**
+     * Creates a pool from already instantiated bridges. Each bridge should come from a different
+     * class loader, otherwise they will all share the same render lock.
+     */
+    public BridgePool(@NonNull List<? extends com.android.ide.common.rendering.api.Bridge> workers) {
+        if (workers.isEmpty()) {
+            throw new IllegalArgumentException("The pool needs at least one worker");
+        }
+        mWorkers = new Worker[workers.size()];
+        for (int i = 0; i < mWorkers.length; i++) {
+            mWorkers[i] = new Worker(workers.get(i));
+        }
+    }
+
+    @Override
+    public int getApiLevel() {
+        return mWorkers[0].mBridge.getApiLevel();
+    }
+
+    @SuppressWarnings("deprecation")
+    @Override
+    @Deprecated
+    public EnumSet<Capability> getCapabilities() {
+        return mWorkers[0].mBridge.getCapabilities();
+    }
+
+    @Override
+    public boolean supports(int feature) {
+        return mWorkers[0].mBridge.supports(feature);
+    }
+
+    @Override
+    public boolean init(Map<String, String> platformProperties,
+            File fontLocation,
+            String icuDataPath,
+            Map<String, Map<String, Integer>> enumValueMap,
+            LayoutLog log) {
+        boolean success = true;
+        for (Worker worker : mWorkers) {
+            success &= worker.mBridge.init(platformProperties, fontLocation, icuDataPath,
+                    enumValueMap, log);
+        }
+        return success;
+    }
+
+    @Override
+    public boolean dispose() {
+        boolean success = true;
+        for (Worker worker : mWorkers) {
+            success &= worker.mBridge.dispose();
+        }
+        synchronized (mProjectAffinity) {
+            mProjectAffinity.clear();
+        }
+        return success;
+    }
+
+    @Override
+    public RenderSession createSession(SessionParams params) {
+        return createSession(params, (p, classLoader) -> p);
+    }
+
+    /**
+     * Creates a session on the worker picked for the project of the given params.
+     *
+     * @param params the params used to pick the worker
+     * @param paramsForWorker returns the params to send to the picked worker, given the params
+     *     and the class loader of the worker
+     */
+    public RenderSession createSession(@NonNull SessionParams params,
+            @NonNull BiFunction<SessionParams, ClassLoader, SessionParams> paramsForWorker) {
+        Worker worker = acquireWorker(params.getProjectKey());
+        try {
+            return worker.mBridge.createSession(
+                    paramsForWorker.apply(params, worker.getClassLoader()));
+        } finally {
+            worker.mPending.decrementAndGet();
+        }
+    }
+
+    @Override
+    public Result renderDrawable(DrawableParams params) {
+        return renderDrawable(params, (p, classLoader) -> p);
+    }
+
+    /**
+     * Renders a drawable on the worker picked for the project of the given params.
+     *
+     * @param params the params used to pick the worker
+     * @param paramsForWorker returns the params to send to the picked worker, given the params
+     *     and the class loader of the worker
+     */
+    public Result renderDrawable(@NonNull DrawableParams params,
+            @NonNull BiFunction<DrawableParams, ClassLoader, DrawableParams> paramsForWorker) {
+        Worker worker = acquireWorker(params.getProjectKey());
+        try {
+            return worker.mBridge.renderDrawable(
+                    paramsForWorker.apply(params, worker.getClassLoader()));
+        } finally {
+            worker.mPending.decrementAndGet();
+        }
+    }
+
+    @Override
+    public void clearCaches(Object projectKey) {
+        for (Worker worker : mWorkers) {
+            worker.mBridge.clearCaches(projectKey);
+        }
+        synchronized (mProjectAffinity) {
+            mProjectAffinity.remove(projectKey);
+        }
+    }
+
+    @Override
+    public void clearFontCache(String path) {
+        for (Worker worker : mWorkers) {
+            worker.mBridge.clearFontCache(path);
+        }
+    }
+
+    @Override
+    public Result getViewParent(Object viewObject) {
+        return getOwner(viewObject).getViewParent(viewObject);
+    }
+
+    @Override
+    public Result getViewIndex(Object viewObject) {
+        return getOwner(viewObject).getViewIndex(viewObject);
+    }
+
+    @Override
+    public boolean isRtl(String locale) {
+        return mWorkers[0].mBridge.isRtl(locale);
+    }
+
+    /**
+     * Creates a session for each of the given params, as done by
+     * {@link Bridge#createSessions(List)}, but spreads the params over the workers so the sessions
+     * are created in parallel.
+     * <p/>
+     * Each layout description is parsed once by the pool and the workers replay the recorded
+     * layout, see {@link RecordedLayout}. The layout description of the params returned by
+     * {@code paramsForWorker} is not used.
+     *
+     * @param paramsList the params of the sessions to create
+     * @param paramsForWorker returns the params to send to the worker picked for a session, given
+     *     the params of the session and the class loader of the worker. It is called from several
+     *     threads at the same time.
+     * @return the sessions, in the same order as the params.
+     */
+    @NonNull
+    public List<RenderSession> createSessions(@NonNull List<SessionParams> paramsList,
+            @NonNull BiFunction<SessionParams, ClassLoader, SessionParams> paramsForWorker) {
+        RenderSession[] sessions = new RenderSession[paramsList.size()];
+        Map<ILayoutPullParser, List<Integer>> indicesByLayout = new IdentityHashMap<>();
+        for (int i = 0; i < paramsList.size(); i++) {
+            indicesByLayout.computeIfAbsent(paramsList.get(i).getLayoutDescription(),
+                    k -> new ArrayList<>()).add(i);
+        }
+
+        List<Thread> threads = new ArrayList<>();
+        // The workers already given a chunk of this batch.
+        Set<Worker> batchWorkers = new HashSet<>();
+        for (Map.Entry<ILayoutPullParser, List<Integer>> entry : indicesByLayout.entrySet()) {
+            List<Integer> indices = entry.getValue();
+            RecordedLayout layout;
+            try {
+                layout = RecordedLayout.record(entry.getKey());
+            } catch (Throwable t) {
+                Result error = ERROR_UNKNOWN.createResult(t.getMessage(), t);
+                for (int index : indices) {
+                    sessions[index] = new BridgeRenderSession(null, error);
+                }
+                continue;
+            }
+
+            // Split the params in as many contiguous chunks as there are available workers.
+            int chunkCount = Math.min(indices.size(), mWorkers.length);
+            for (int chunk = 0; chunk < chunkCount; chunk++) {
+                List<Integer> chunkIndices = indices.subList(chunk * indices.size() / chunkCount,
+                        (chunk + 1) * indices.size() / chunkCount);
+                Worker worker = acquireBatchWorker(batchWorkers);
+                Thread thread = new Thread(() -> {
+                    try {
+                        List<SessionParams> chunkParams = new ArrayList<>(chunkIndices.size());
+                        for (int index : chunkIndices) {
+                            chunkParams.add(paramsForWorker.apply(paramsList.get(index),
+                                    worker.getClassLoader()));
+                        }
+                        List<RenderSession> result =
+                                worker.createSessions(chunkParams, layout::newParser);
+                        for (int i = 0; i < chunkIndices.size(); i++) {
+                            sessions[chunkIndices.get(i)] = result.get(i);
+                        }
+                    } catch (Throwable t) {
+                        Result error = ERROR_UNKNOWN.createResult(t.getMessage(), t);
+                        for (int index : chunkIndices) {
+                            sessions[index] = new BridgeRenderSession(null, error);
+                        }
+                    } finally {
+                        worker.mPending.decrementAndGet();
+                    }
+                }, "BridgePool batch");
+                thread.start();
+                threads.add(thread);
+            }
+        }
+
+        boolean interrupted = false;
+        for (Thread thread : threads) {
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    // The sessions are still being created, wait for them.
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        return Arrays.asList(sessions);
+    }
+
+    /**
+     * Returns the number of workers in the pool.
+     */
+    public int getWorkerCount() {
+        return mWorkers.length;
+    }
+
+    /**
+     * Picks the worker for a new request and marks it as pending. The caller must decrement
+     * {@link Worker#mPending} once the request is done.
+     */
+    @NonNull
+    private Worker acquireWorker(@Nullable Object projectKey) {
+        synchronized (mProjectAffinity) {
+            Worker leastLoaded = getLeastLoadedWorker(null);
+
+            Worker selected = projectKey != null ? mProjectAffinity.get(projectKey) : null;
+            if (selected == null ||
+                    selected.mPending.get() > leastLoaded.mPending.get() + AFFINITY_SLACK) {
+                selected = leastLoaded;
+                if (projectKey != null) {
+                    mProjectAffinity.put(projectKey, selected);
+                }
+            }
+
+            selected.mPending.incrementAndGet();
+            return selected;
+        }
+    }
+
+    /**
+     * Picks the worker for a chunk of a batch and marks it as pending, like
+     * {@link #acquireWorker(Object)}. The project affinity is ignored: the least loaded worker
+     * that was not given a chunk of the batch yet is picked, so the chunks run in parallel.
+     *
+     * @param batchWorkers the workers already picked for the batch, updated by this method
+     */
+    @NonNull
+    private Worker acquireBatchWorker(@NonNull Set<Worker> batchWorkers) {
+        synchronized (mProjectAffinity) {
+            if (batchWorkers.size() == mWorkers.length) {
+                // More chunks than workers, start another round.
+                batchWorkers.clear();
+            }
+            Worker selected = getLeastLoadedWorker(batchWorkers);
+            batchWorkers.add(selected);
+            selected.mPending.incrementAndGet();
+            return selected;
+        }
+    }
+
+    /**
+     * Returns the worker with the fewest pending requests, ignoring the excluded ones. At least
+     * one worker must not be excluded.
+     */
+    @NonNull
+    private Worker getLeastLoadedWorker(@Nullable Set<Worker> excluded) {
+        Worker leastLoaded = null;
+        for (Worker worker : mWorkers) {
+            if ((excluded == null || !excluded.contains(worker)) && (leastLoaded == null ||
+                    worker.mPending.get() < leastLoaded.mPending.get())) {
+                leastLoaded = worker;
+            }
+        }
+        assert leastLoaded != null;
+        return leastLoaded;
+    }
+
+    @NonNull
+    private com.android.ide.common.rendering.api.Bridge getOwner(Object viewObject) {
+        for (Worker worker : mWorkers) {
+            if (worker.isViewFromWorker(viewObject)) {
+                return worker.mBridge;
+            }
+        }
+
+        throw new IllegalArgumentException("viewObject is not a View");
+    }
+}
@@ -20,8 +20,13 @@ import com.android.ide.common.rendering.api.RenderSession;
 import com.android.ide.common.rendering.api.ResourceReference;
 import com.android.ide.common.rendering.api.ResourceValue;
 import com.android.ide.common.rendering.api.Result;
+import com.android.ide.common.rendering.api.SessionParams;
 import com.android.ide.common.rendering.api.ViewInfo;
+import com.android.layoutlib.bridge.android.RenderParamsFlags;
+import com.android.layoutlib.bridge.impl.DelegateManager;
+import com.android.layoutlib.bridge.impl.RecordedLayout;
 import com.android.layoutlib.bridge.impl.RenderSessionImpl;
+import com.android.layoutlib.bridge.impl.ViewInfoDelta;
 import com.android.tools.layoutlib.java.System_Delegate;
 
 import android.annotation.NonNull;
@@ -32,6 +37,8 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
+import static com.android.ide.common.rendering.api.Result.Status.ERROR_NOT_INFLATED;
+
 /**
  * An implementation of {@link RenderSession}.
  *
@@ -45,6 +52,7 @@ public class BridgeRenderSession extends RenderSession {
     private final RenderSessionImpl mSession;
     @NonNull
     private Result mLastResult;
+    private boolean mDisposed;
 
     @Override
     public Result getResult() {
@@ -72,6 +80,53 @@ public class BridgeRenderSession extends RenderSession {
         return mSession != null ? mSession.getSystemViewInfos() : Collections.emptyList();
     }
 
+    /**
+     * Returns the changes in the {@link ViewInfo} hierarchy made by the last render, or null if
+     * {@link RenderParamsFlags#FLAG_KEY_VIEW_INFO_DELTA} is not set.
+     */
+    @Nullable
+    public ViewInfoDelta getViewInfoDelta() {
+        return mSession != null ? mSession.getViewInfoDelta() : null;
+    }
+
+    /**
+     * Returns the live delegates created by this session, per delegate type, with their
+     * approximate size. This can be called after {@link #dispose()} to find what the session
+     * leaked.
+     */
+    @NonNull
+    public Map<Class<?>, DelegateManager.Usage> getDelegateUsage() {
+        return mSession != null ? DelegateManager.getUsage(mSession.getDelegateOwner()) :
+                Collections.emptyMap();
+    }
+
+    /**
+     * Creates a new session for the layout of this session with the given params, which
+     * typically differ from the params of this session by their locale, theme or resources. Only
+     * the parsing of the layout is saved: the layout description of the params is ignored and the
+     * new session replays the layout recorded by this session, but it inflates its own views.
+     * <p/>
+     * This session must have been created with {@link RenderParamsFlags#FLAG_KEY_RECORD_LAYOUT}
+     * and must not be disposed.
+     */
+    @NonNull
+    public RenderSession createSessionWithSameLayout(@NonNull SessionParams params) {
+        if (mSession == null) {
+            return new BridgeRenderSession(null, ERROR_NOT_INFLATED.createResult(
+                    "The session failed to be created", mLastResult.getException()));
+        }
+        if (mDisposed) {
+            return new BridgeRenderSession(null,
+                    ERROR_NOT_INFLATED.createResult("The session has been disposed"));
+        }
+        RecordedLayout layout = mSession.getRecordedLayout();
+        if (layout == null) {
+            return new BridgeRenderSession(null, ERROR_NOT_INFLATED.createResult(
+                    "The session was not created with FLAG_KEY_RECORD_LAYOUT"));
+        }
+        return Bridge.createSession(params, layout.newParser());
+    }
+
     @Override
     public Map<Object, Map<ResourceReference, ResourceValue>> getDefaultNamespacedProperties() {
         return mSession != null ? mSession.getDefaultNamespacedProperties() :
@@ -150,6 +205,7 @@ public class BridgeRenderSession extends RenderSession {
         if (mSession != null) {
             mSession.dispose();
         }
+        mDisposed = true;
     }
 
     /*package*/ BridgeRenderSession(@Nullable RenderSessionImpl scene, @NonNull Result lastResult) {
@@ -20,6 +20,7 @@ import com.android.ide.common.rendering.api.IImageFactory;
 import com.android.ide.common.rendering.api.LayoutlibCallback;
 import com.android.ide.common.rendering.api.RenderParams;
 import com.android.ide.common.rendering.api.SessionParams.Key;
+import com.android.ide.common.rendering.api.ViewInfo;
 
 /**
  * This contains all known keys for the {@link RenderParams#getFlag(Key)}.
@@ -87,6 +88,68 @@ public final class RenderParamsFlags {
     public static final Key<Boolean> FLAG_ENABLE_SHADOW =
             new Key<>("enableShadow", Boolean.class);
 
+    /**
+     * Priority of the render request when waiting for the render lock. One of "interactive",
+     * "background" or "prefetch". Interactive requests are served first. A waiting prefetch
+     * request is dropped when an interactive request for the same project arrives.
+     * <p/>
+     * Default is "interactive".
+     */
+    public static final Key<String> FLAG_KEY_RENDER_PRIORITY =
+            new Key<>("renderPriority", String.class);
+
+    /**
+     * When enabled, a render that reuses the image of the previous render only redraws the areas
+     * invalidated since then, and keeps the rest of the previous frame. If nothing was
+     * invalidated, the image is left untouched. The result image must not be modified by the
+     * caller between renders when this is enabled.
+     */
+    public static final Key<Boolean> FLAG_KEY_INCREMENTAL_RENDER =
+            new Key<>("incrementalRender", Boolean.class);
+
+    /**
+     * When enabled, the {@link ViewInfo}s of the views that did not change since the previous
+     * render are reused instead of being created again, and the changes in the hierarchy are
+     * available from {@code BridgeRenderSession#getViewInfoDelta()}.
+     */
+    public static final Key<Boolean> FLAG_KEY_VIEW_INFO_DELTA =
+            new Key<>("viewInfoDelta", Boolean.class);
+
+    /**
+     * When enabled and no {@link IImageFactory} is given, the result image is taken from the
+     * image pool shared by all the sessions, and given back to it when the session is disposed or
+     * when the rendering size changes. The image returned by the session must not be used after
+     * that.
+     */
+    public static final Key<Boolean> FLAG_KEY_POOLED_RESULT_IMAGE =
+            new Key<>("pooledResultImage", Boolean.class);
+
+    /**
+     * When enabled, the session only measures and lays out the layout. No image is ever created
+     * and only the {@link ViewInfo}s of the content are computed. The system decor is still
+     * inflated and measured, since it changes the space left to the content, but no system
+     * {@link ViewInfo} is returned.
+     */
+    public static final Key<Boolean> FLAG_KEY_MEASURE_ONLY =
+            new Key<>("measureOnly", Boolean.class);
+
+    /**
+     * When enabled, the session records the layout it inflates so that
+     * {@code BridgeRenderSession#createSessionWithSameLayout(SessionParams)} can create sessions
+     * for variants of the params, for example for another locale or theme, without parsing the
+     * layout again. The views are still inflated by each session.
+     */
+    public static final Key<Boolean> FLAG_KEY_RECORD_LAYOUT =
+            new Key<>("recordLayout", Boolean.class);
+
+    /**
+     * When enabled, the status bar, navigation bar and title bar simulated by layoutlib are drawn
+     * through a software layer. Their content is kept as a bitmap that is only redrawn when the
+     * bar is invalidated, so repeated renders and animation frames only copy it.
+     */
+    public static final Key<Boolean> FLAG_KEY_CACHE_SYSTEM_BARS =
+            new Key<>("cacheSystemBars", Boolean.class);
+
     // Disallow instances.
     private RenderParamsFlags() {}
 }
@@ -18,18 +18,28 @@ package com.android.layoutlib.bridge.impl;
 
 import com.android.internal.annotations.GuardedBy;
 import com.android.layoutlib.bridge.util.Debug;
-import com.android.layoutlib.bridge.util.SparseWeakArray;
+import com.android.tools.layoutlib.annotations.VisibleForTesting;
 
+import android.annotation.NonNull;
 import android.annotation.Nullable;
-import android.util.SparseArray;
 
 import java.io.PrintStream;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.WeakHashMap;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.ToLongFunction;
 
 import libcore.util.NativeAllocationRegistry_Delegate;
 
@@ -69,23 +79,50 @@ import libcore.util.NativeAllocationRegistry_Delegate;
  *   the delegate to/from a set. This set holds the reference and prevents the GC from reclaiming
  *   the delegate.
  *
- * - {@link #addNewDelegate(Object)} also adds the delegate to a {@link SparseArray} that holds a
+ * - {@link #addNewDelegate(Object)} also adds the delegate to a slot table that holds a
  *   {@link WeakReference} to the delegate. This allows the delegate to be deleted automatically
  *   when nothing references it. This means that any class that holds a delegate (except for the
  *   Java main class) must not use the int but the Delegate class instead. The integers must
  *   only be used in the API between the main Java class and the Delegate.
  *
+ * Each manager has its own slot table. The native int encodes the generation of the slot, the id
+ * of the manager and the index of the slot, so {@link #getDelegate(long)} is a direct array
+ * access that does not take any lock. The generation of a slot changes every time the slot is
+ * reused, which allows to detect the native ints of delegates that were already collected.
+ * A manager can still find the delegates of the other managers, which is needed by the classes
+ * handling the native ints of all the delegates, like {@link NativeAllocationRegistry_Delegate}.
+ *
  * @param <T> the delegate class to manage
  */
 public final class DelegateManager<T> {
-    private static final SparseWeakArray<Object> sDelegates = new SparseWeakArray<>();
+    // Layout of the native int: [generation][manager id][slot index]. The sign bit is never set.
+    private static final int SLOT_BITS = 28;
+    private static final int MANAGER_BITS = 10;
+    private static final int GENERATION_BITS = 63 - SLOT_BITS - MANAGER_BITS;
+    private static final int SLOT_MASK = (1 << SLOT_BITS) - 1;
+    private static final int MANAGER_MASK = (1 << MANAGER_BITS) - 1;
+    private static final int GENERATION_MASK = (1 << GENERATION_BITS) - 1;
+
+    /** All the managers, indexed by their id. Copied when a manager is added. */
+    private static volatile DelegateManager<?>[] sManagers = new DelegateManager<?>[0];
+    /**
+     * Queue of the references in the slot tables whose delegate was collected, and of the
+     * native allocations whose referent was collected.
+     */
+    private static final ReferenceQueue<Object> sCollectedReferences = new ReferenceQueue<>();
+    /** Maximum number of references processed at once by {@link #reclaim}. */
+    private static final int RECLAIM_BATCH_SIZE = 256;
+    /** Thread processing {@link #sCollectedReferences}, see {@link #startReclaimer()}. */
+    private static volatile Thread sReclaimer;
+    /** Owner of the delegates being added, see {@link #setCurrentOwner(Owner)}. */
+    @Nullable
+    private static volatile Owner sCurrentOwner;
     /** Set used to store delegates when their main object holds a reference to them.
-     * This is to ensure that the WeakReference in the SparseWeakArray doesn't get GC'ed
+     * This is to ensure that the WeakReference in the slot table doesn't get GC'ed
      * @see #addNewDelegate(Object)
      * @see #removeJavaReferenceFor(long)
      */
     private static final Set<Object> sJavaReferences = new HashSet<>();
-    private static final AtomicLong sDelegateCounter = new AtomicLong(1);
     /**
      * Tracks "native" allocations. This means that we know of the object in the Java side and we
      * can attach the delegate lifecycle to the lifecycle of the Java object. If the Java object
@@ -93,7 +130,8 @@ public final class DelegateManager<T> {
      * Ideally, we would use a {@link WeakHashMap} but we do not control the equals() method of the
      * referents so we can not safely rely on them.
      */
-    private static final LinkedList<NativeAllocationHolder> sNativeAllocations = new LinkedList<>();
+    private static final Set<NativeAllocationHolder> sNativeAllocations =
+            Collections.newSetFromMap(new IdentityHashMap<>());
     /**
      * Map that allows to do a quick lookup of delegates that have been marked as native
      * allocations.
@@ -103,27 +141,205 @@ public final class DelegateManager<T> {
     @GuardedBy("sNativeAllocations")
     private static final WeakHashMap<Object, WeakReference<NativeAllocationHolder>>
             sNativeAllocationsReferences = new WeakHashMap<>();
-    /**
-     * Counter of the number of native allocations. We use this counter to trigger the collection
-     * of unlinked references in the sNativeAllocations list. We do not need to do this process
-     * on every allocation so only run it every 50 allocations.
-     */
-    @GuardedBy("sNativeAllocations")
-    private static long sNativeAllocationsCount = 0;
 
     @SuppressWarnings("FieldCanBeLocal")
     private final Class<T> mClass;
+    private final int mId;
+    /** The delegate of each slot. Replaced by a bigger copy when all the slots are used. */
+    private volatile AtomicReferenceArray<DelegateReference> mSlots =
+            new AtomicReferenceArray<>(16);
+    /** The generation of each slot, incremented when the slot is reused. */
+    @GuardedBy("this")
+    private int[] mGenerations = new int[16];
+    /** Number of slots in use or in the free list. */
+    @GuardedBy("this")
+    private int mSlotCount;
+    @GuardedBy("this")
+    private int[] mFreeSlots = new int[16];
+    @GuardedBy("this")
+    private int mFreeSlotCount;
+    /** Number of delegates of this manager that were not collected yet. */
+    private final AtomicInteger mLiveCount = new AtomicInteger();
+    @Nullable
+    private final ToLongFunction<T> mSizeEstimator;
+
+    /**
+     * Owner to which delegates are attributed, typically a render session.
+     *
+     * @see #setCurrentOwner(Owner)
+     * @see #getUsage(Owner)
+     */
+    public static final class Owner {
+        private final String mName;
+
+        public Owner(@NonNull String name) {
+            mName = name;
+        }
+
+        @Override
+        public String toString() {
+            return mName;
+        }
+    }
+
+    /**
+     * Number and approximate size of the live delegates of one type.
+     */
+    public static final class Usage {
+        private int mCount;
+        private long mSize;
+
+        private Usage() {
+        }
+
+        public int getCount() {
+            return mCount;
+        }
+
+        /**
+         * Returns the approximate number of bytes retained by the delegates, or 0 if the size of
+         * this type of delegate is not known.
+         */
+        public long getSize() {
+            return mSize;
+        }
+    }
 
     public DelegateManager(Class<T> theClass) {
+        this(theClass, null);
+    }
+
+    /**
+     * Creates a manager that can estimate the size of its delegates, see {@link #getUsage(Owner)}.
+     *
+     * @param sizeEstimator returns the approximate number of bytes retained by a delegate
+     */
+    public DelegateManager(Class<T> theClass, @Nullable ToLongFunction<T> sizeEstimator) {
         mClass = theClass;
+        mSizeEstimator = sizeEstimator;
+        synchronized (DelegateManager.class) {
+            mId = sManagers.length;
+            if (mId > MANAGER_MASK) {
+                throw new IllegalStateException("Too many delegate managers");
+            }
+            DelegateManager<?>[] managers = Arrays.copyOf(sManagers, mId + 1);
+            managers[mId] = this;
+            sManagers = managers;
+        }
     }
 
     public synchronized static void dump(PrintStream out) {
-        for (Object reference : sJavaReferences) {
-            int idx = sDelegates.indexOfValue(reference);
-            out.printf("[%d] %s\n", sDelegates.keyAt(idx), reference.getClass().getSimpleName());
+        for (DelegateManager<?> manager : sManagers) {
+            AtomicReferenceArray<DelegateReference> slots = manager.mSlots;
+            for (int i = 0; i < slots.length(); i++) {
+                DelegateReference reference = slots.get(i);
+                Object delegate = reference != null ? reference.get() : null;
+                if (delegate != null && sJavaReferences.contains(delegate)) {
+                    out.printf("[%d] %s\n", reference.mNativeObject,
+                            delegate.getClass().getSimpleName());
+                }
+            }
         }
         out.printf("\nTotal number of objects: %d\n", sJavaReferences.size());
+
+        out.println("\nLive delegates:");
+        for (DelegateManager<?> manager : sManagers) {
+            int count = manager.getLiveCount();
+            if (count > 0) {
+                out.printf("%s: %d\n", manager.mClass.getSimpleName(), count);
+            }
+        }
+    }
+
+    /**
+     * Prints the live delegates of the given owner per type, with their approximate size.
+     */
+    public static void dump(PrintStream out, @NonNull Owner owner) {
+        out.printf("Live delegates of %s:\n", owner);
+        for (Map.Entry<Class<?>, Usage> entry : getUsage(owner).entrySet()) {
+            Usage usage = entry.getValue();
+            out.printf("%s: %d (%d KB)\n", entry.getKey().getSimpleName(), usage.getCount(),
+                    usage.getSize() / 1024);
+        }
+    }
+
+    /**
+     * Sets the owner of the delegates added from now on, or null to stop attributing the new
+     * delegates. This is set by {@link RenderAction} while it holds the render lock.
+     */
+    public static void setCurrentOwner(@Nullable Owner owner) {
+        sCurrentOwner = owner;
+    }
+
+    /**
+     * Returns the live delegates added while the given owner was set, per delegate type.
+     * <p>
+     * Delegates that are not referenced anymore but were not collected yet are included.
+     */
+    @NonNull
+    public static Map<Class<?>, Usage> getUsage(@NonNull Owner owner) {
+        Map<Class<?>, Usage> usages = new HashMap<>();
+        for (DelegateManager<?> manager : sManagers) {
+            manager.addUsage(owner, usages);
+        }
+        return usages;
+    }
+
+    private void addUsage(@NonNull Owner owner, @NonNull Map<Class<?>, Usage> usages) {
+        AtomicReferenceArray<DelegateReference> slots = mSlots;
+        for (int i = 0; i < slots.length(); i++) {
+            DelegateReference reference = slots.get(i);
+            Object delegate = reference != null && reference.mOwner == owner ?
+                    reference.get() : null;
+            if (delegate != null) {
+                Usage usage = usages.computeIfAbsent(mClass, k -> new Usage());
+                usage.mCount++;
+                if (mSizeEstimator != null) {
+                    //noinspection unchecked
+                    usage.mSize += mSizeEstimator.applyAsLong((T) delegate);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of delegates added to this manager that were not collected yet.
+     */
+    public int getLiveCount() {
+        return mLiveCount.get();
+    }
+
+    /**
+     * Returns the number of slots that can be reused for new delegates.
+     */
+    @VisibleForTesting
+    synchronized int getFreeSlotCount() {
+        return mFreeSlotCount;
+    }
+
+    /**
+     * Removes this manager from the managers known by {@link #getDelegate(long)}. Only the last
+     * created manager can be unregistered, and its delegates cannot be used anymore.
+     */
+    @VisibleForTesting
+    void unregister() {
+        synchronized (DelegateManager.class) {
+            if (mId != sManagers.length - 1) {
+                throw new IllegalStateException("Only the last created manager can be removed");
+            }
+            sManagers = Arrays.copyOf(sManagers, mId);
+        }
+    }
+
+    /**
+     * Queues the reference to the given delegate as if the delegate had been collected.
+     */
+    @VisibleForTesting
+    void enqueueReference(long native_object) {
+        DelegateReference reference = getSlot(native_object);
+        if (reference != null && reference.mNativeObject == native_object) {
+            reference.enqueue();
+        }
     }
 
     /**
@@ -131,7 +347,9 @@ public final class DelegateManager<T> {
      * <p>
      * If the int is zero, then this will always return null.
      * <p>
-     * If the int is non zero and the delegate is not found, this will throw an assert.
+     * If the int belongs to a delegate that was already collected, this returns null.
+     * <p>
+     * If the int is non zero and was never returned by a manager, this will throw an assert.
      *
      * @param native_object the native int.
      * @return the delegate or null if not found.
@@ -139,34 +357,94 @@ public final class DelegateManager<T> {
     @Nullable
     public T getDelegate(long native_object) {
         if (native_object > 0) {
-            Object delegate;
-            synchronized (DelegateManager.class) {
-                delegate = sDelegates.get(native_object);
-            }
+            int managerId = (int) (native_object >>> SLOT_BITS) & MANAGER_MASK;
+            DelegateManager<?> manager = managerId == mId ? this : getManager(managerId);
+            DelegateReference reference = manager != null ? manager.getSlot(native_object) : null;
+            Object delegate = reference != null && reference.mNativeObject == native_object ?
+                    reference.get() : null;
 
-            if (Debug.DEBUG) {
-                if (delegate == null) {
-                    System.err.println("Unknown " + mClass.getSimpleName() + " with int " +
-                            native_object);
+            if (delegate == null) {
+                boolean stale = manager != null && manager.isKnownSlot(native_object);
+                if (Debug.DEBUG) {
+                    System.err.println((stale ? "Stale " : "Unknown ") +
+                            mClass.getSimpleName() + " with int " + native_object);
                 }
+
+                assert stale;
             }
 
-            assert delegate != null;
             //noinspection unchecked
             return (T)delegate;
         }
         return null;
     }
 
+    @Nullable
+    private static DelegateManager<?> getManager(int managerId) {
+        DelegateManager<?>[] managers = sManagers;
+        return managerId < managers.length ? managers[managerId] : null;
+    }
+
+    @Nullable
+    private DelegateReference getSlot(long native_object) {
+        int slot = (int) native_object & SLOT_MASK;
+        AtomicReferenceArray<DelegateReference> slots = mSlots;
+        return slot < slots.length() ? slots.get(slot) : null;
+    }
+
+    /**
+     * Returns whether the given native int was returned by this manager.
+     */
+    private synchronized boolean isKnownSlot(long native_object) {
+        int slot = (int) native_object & SLOT_MASK;
+        int generation = (int) (native_object >>> (SLOT_BITS + MANAGER_BITS));
+        return slot < mSlotCount && generation != 0 && generation <= mGenerations[slot];
+    }
+
     /**
      * Adds a delegate to the manager and returns the native int used to identify it.
      * @param newDelegate the delegate to add
      * @return a unique native int to identify the delegate
      */
     public long addNewDelegate(T newDelegate) {
-        long native_object = sDelegateCounter.getAndIncrement();
+        if (sReclaimer == null) {
+            reclaim(sCollectedReferences.poll());
+        }
+        long native_object;
+        synchronized (this) {
+            int slot;
+            if (mFreeSlotCount > 0) {
+                slot = mFreeSlots[--mFreeSlotCount];
+            } else {
+                slot = mSlotCount++;
+                if (slot > SLOT_MASK) {
+                    throw new IllegalStateException("Too many " + mClass.getSimpleName());
+                }
+                if (slot == mSlots.length()) {
+                    AtomicReferenceArray<DelegateReference> slots =
+                            new AtomicReferenceArray<>(slot * 2);
+                    for (int i = 0; i < slot; i++) {
+                        slots.set(i, mSlots.get(i));
+                    }
+                    mSlots = slots;
+                    mGenerations = Arrays.copyOf(mGenerations, slot * 2);
+                }
+            }
+
+            // Generation 0 is never used so that the native int is never 0.
+            int generation = (mGenerations[slot] & GENERATION_MASK) + 1;
+            if (generation > GENERATION_MASK) {
+                generation = 1;
+            }
+            mGenerations[slot] = generation;
+            native_object = (long) generation << (SLOT_BITS + MANAGER_BITS) |
+                    (long) mId << SLOT_BITS | slot;
+            mSlots.set(slot,
+                    new DelegateReference(this, native_object, newDelegate, sCurrentOwner));
+        }
+        mLiveCount.incrementAndGet();
+
         synchronized (DelegateManager.class) {
-            sDelegates.put(native_object, newDelegate);
             // Only for development: assert !sJavaReferences.contains(newDelegate);
             sJavaReferences.add(newDelegate);
         }
@@ -200,11 +478,10 @@ public final class DelegateManager<T> {
                 // make it available to collect ASAP.
                 synchronized (sNativeAllocations) {
                     WeakReference<NativeAllocationHolder> holderRef = sNativeAllocationsReferences.get(delegate);
-                    NativeAllocationHolder holder = holderRef.get();
+                    NativeAllocationHolder holder = holderRef != null ? holderRef.get() : null;
                     if (holder != null) {
-                        // We only null the referred delegate. We do not spend the time in finding
-                        // the holder in the list and removing it since the "garbage collection" in
-                        // markAsNativeAllocation will do it for us.
+                        // We only null the referred delegate. The holder is removed from the set
+                        // by the reclaimer once its referent is collected.
                         holder.mReferred = null;
                     }
                 }
@@ -248,25 +525,130 @@ public final class DelegateManager<T> {
                 sNativeAllocations.add(holder);
                 // The value references the key in this case but we use a WeakReference value.
                 sNativeAllocationsReferences.put(holder.mReferred, new WeakReference<>(holder));
+            }
+        }
+    }
 
-                if (++sNativeAllocationsCount % 50 == 0) {
-                    // Do garbage collection
-                    boolean collected = sNativeAllocations.removeIf(e -> e.mReferent.get() == null);
-                    if (Debug.DEBUG && collected) {
-                        System.err.println("Elements collected");
-                    }
+    /**
+     * Starts the daemon thread that reclaims the slots of the collected delegates and releases
+     * the delegates of the collected native allocation referents. Until it is started, this is
+     * done when new delegates are added.
+     */
+    public static synchronized void startReclaimer() {
+        if (sReclaimer != null) {
+            return;
+        }
+        sReclaimer = new Thread(() -> {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    reclaim(sCollectedReferences.remove());
                 }
+            } catch (InterruptedException ignored) {
             }
+        }, "DelegateManager reclaimer");
+        sReclaimer.setDaemon(true);
+        sReclaimer.start();
+    }
+
+    @VisibleForTesting
+    static boolean isReclaimerRunning() {
+        return sReclaimer != null;
+    }
+
+    /**
+     * Reclaims all the collected references queued so far, batch by batch. The reclaimer thread
+     * must not be running.
+     */
+    @VisibleForTesting
+    static void reclaimAll() {
+        Reference<?> reference;
+        while ((reference = sCollectedReferences.poll()) != null) {
+            reclaim(reference);
+        }
+    }
+
+    /**
+     * Stops the thread started by {@link #startReclaimer()}.
+     */
+    public static void stopReclaimer() {
+        Thread reclaimer;
+        synchronized (DelegateManager.class) {
+            reclaimer = sReclaimer;
+            sReclaimer = null;
+        }
+        if (reclaimer != null) {
+            reclaimer.interrupt();
+            try {
+                reclaimer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Processes a batch of collected references, starting with the given one.
+     */
+    private static void reclaim(@Nullable Reference<?> reference) {
+        List<NativeAllocationHolder> holders = null;
+        for (int i = 0; reference != null; i++) {
+            if (reference instanceof DelegateReference) {
+                DelegateReference delegateReference = (DelegateReference) reference;
+                delegateReference.mManager.freeSlot(delegateReference);
+            } else {
+                if (holders == null) {
+                    holders = new ArrayList<>();
+                }
+                holders.add((NativeAllocationHolder) reference);
+            }
+            // Only take the next reference if it is processed in this batch, otherwise it would
+            // be lost.
+            reference = i + 1 < RECLAIM_BATCH_SIZE ? sCollectedReferences.poll() : null;
+        }
+
+        if (holders != null) {
+            synchronized (sNativeAllocations) {
+                sNativeAllocations.removeAll(holders);
+            }
+            if (Debug.DEBUG) {
+                System.err.println(holders.size() + " native allocations collected");
+            }
+        }
+    }
+
+    private synchronized void freeSlot(DelegateReference reference) {
+        int slot = (int) reference.mNativeObject & SLOT_MASK;
+        if (mSlots.compareAndSet(slot, reference, null)) {
+            if (mFreeSlotCount == mFreeSlots.length) {
+                mFreeSlots = Arrays.copyOf(mFreeSlots, mFreeSlotCount * 2);
+            }
+            mFreeSlots[mFreeSlotCount++] = slot;
+        }
+        mLiveCount.decrementAndGet();
+    }
+
+    private static class DelegateReference extends WeakReference<Object> {
+        private final DelegateManager<?> mManager;
+        private final long mNativeObject;
+
+        @Nullable
+        private final Owner mOwner;
+
+        private DelegateReference(DelegateManager<?> manager, long nativeObject,
+                Object delegate, @Nullable Owner owner) {
+            super(delegate, sCollectedReferences);
+            mManager = manager;
+            mNativeObject = nativeObject;
+            mOwner = owner;
         }
     }
 
-    private static class NativeAllocationHolder {
-        private final WeakReference<Object> mReferent;
+    private static class NativeAllocationHolder extends WeakReference<Object> {
         // The referred object is not null so we can null them on demand
         private Object mReferred;
 
         private NativeAllocationHolder(Object referent, Object referred) {
-            mReferent = new WeakReference<>(referent);
+            super(referent, sCollectedReferences);
             mReferred = referred;
         }
     }
@@ -31,6 +31,8 @@ import android.graphics.RectF;
 import android.graphics.Region;
 import android.graphics.Region_Delegate;
 import android.graphics.Shader_Delegate;
+import android.util.imagepool.ImagePool;
+import android.util.imagepool.ImagePoolProvider;
 
 import java.awt.AlphaComposite;
 import java.awt.Color;
@@ -71,7 +73,7 @@ public class GcSnapshot {
     /** temp transform in case transformation are set before a Graphics2D exists */
     private AffineTransform mTransform = null;
     /** temp clip in case clipping is set before a Graphics2D exists */
-    private Area mClip = null;
+    private Shape mClip = null;
 
     // local layer data
     /** a local layer created with {@link Canvas#saveLayer(RectF, Paint, int)}.
@@ -81,6 +83,13 @@ public class GcSnapshot {
     private final Layer mLocalLayer;
     private final Paint_Delegate mLocalLayerPaint;
     private final Rect mLayerBounds;
+    /** whether the images of the local layer were given back to the {@link ImagePool} */
+    private boolean mLayerImagesReleased;
+    /**
+     * whether nothing drawn in this snapshot can be visible, because a layer was saved with an
+     * empty area or a fully transparent paint. No image is created for such a layer.
+     */
+    private final boolean mSkipDrawing;
 
     public interface Drawable {
         void draw(Graphics2D graphics, Paint_Delegate paint);
@@ -102,6 +111,9 @@ public class GcSnapshot {
          * passed in {@link #makeCopy()} and instead is recreated when a new layer is added
          * (depending on its flags) */
         private BufferedImage mOriginalCopy;
+        /** the position of the image of the layer in the base layer */
+        private final int mOffsetX;
+        private final int mOffsetY;
 
         /**
          * Creates a layer with a graphics and a bitmap. This is only used to create
@@ -115,6 +127,8 @@ public class GcSnapshot {
             mBitmap = bitmap;
             mImage = mBitmap.getImage();
             mFlags = 0;
+            mOffsetX = 0;
+            mOffsetY = 0;
         }
 
         /**
@@ -125,12 +139,16 @@ public class GcSnapshot {
          * @param graphics the graphics the new graphics for this layer
          * @param image the image the image from which the graphics came
          * @param flags the flags that were used to save this layer
+         * @param offsetX the position of the image in the base layer
+         * @param offsetY the position of the image in the base layer
          */
-        Layer(Graphics2D graphics, BufferedImage image, int flags) {
+        Layer(Graphics2D graphics, BufferedImage image, int flags, int offsetX, int offsetY) {
             mGraphics = graphics;
             mBitmap = null;
             mImage = image;
             mFlags = flags;
+            mOffsetX = offsetX;
+            mOffsetY = offsetY;
         }
 
         /** The Graphics2D, guaranteed to be non null */
@@ -157,7 +175,31 @@ public class GcSnapshot {
                 return new Layer((Graphics2D) mGraphics.create(), mBitmap);
             }
 
-            return new Layer((Graphics2D) mGraphics.create(), mImage, mFlags);
+            return new Layer((Graphics2D) mGraphics.create(), mImage, mFlags, mOffsetX,
+                    mOffsetY);
+        }
+
+        int getOffsetX() {
+            return mOffsetX;
+        }
+
+        int getOffsetY() {
+            return mOffsetY;
+        }
+
+        /**
+         * Sets the transform of the graphics. The transform is the one of the base layer, the
+         * position of the layer image is added to it.
+         */
+        void setTransform(AffineTransform transform) {
+            if (mOffsetX == 0 && mOffsetY == 0) {
+                mGraphics.setTransform(transform);
+                return;
+            }
+            AffineTransform layerTransform =
+                    AffineTransform.getTranslateInstance(-mOffsetX, -mOffsetY);
+            layerTransform.concatenate(transform);
+            mGraphics.setTransform(layerTransform);
         }
 
         /** sets an optional copy of the original content to be used during restore */
@@ -258,6 +300,7 @@ public class GcSnapshot {
         mLocalLayer = null;
         mLocalLayerPaint = null;
         mLayerBounds = null;
+        mSkipDrawing = false;
     }
 
     /**
@@ -284,23 +327,31 @@ public class GcSnapshot {
             mLayers.add(layer.makeCopy());
         }
 
-        if (layerBounds != null) {
-            // get the current transform
-            AffineTransform matrix = mLayers.get(0).getGraphics().getTransform();
+        Rect bounds = null;
+        if (layerBounds != null && !mPrevious.mSkipDrawing) {
+            bounds = getVisibleLayerBounds(layerBounds);
+        }
 
-            // transform the layerBounds with the current transform and stores it into a int rect
-            RectF rect2 = new RectF();
-            mapRect(matrix, rect2, layerBounds);
-            mLayerBounds = new Rect();
-            rect2.round(mLayerBounds);
+        boolean clipToLayer = (mFlags & Canvas.CLIP_TO_LAYER_SAVE_FLAG) != 0;
+        if (layerBounds != null && clipToLayer && (mPrevious.mSkipDrawing ||
+                bounds.isEmpty() || isInvisible(paint))) {
+            // Nothing drawn in the layer can be visible, and the layer clips what is drawn in
+            // it, so no layer is needed and this is a normal save() that does not draw.
+            mSkipDrawing = true;
+            mLocalLayer = null;
+            mLayerBounds = null;
+        } else if (bounds != null && !bounds.isEmpty()) {
+            mSkipDrawing = false;
+            mLayerBounds = bounds;
 
             // get the base layer (always at index 0)
             Layer baseLayer = mLayers.get(0);
 
-            // create the image for the layer
-            BufferedImage layerImage = new BufferedImage(
-                    baseLayer.getImage().getWidth(),
-                    baseLayer.getImage().getHeight(),
+            // create the image for the layer. It only covers the part of the layer that can be
+            // drawn.
+            BufferedImage layerImage = ImagePoolProvider.get().acquireBufferedImage(
+                    mLayerBounds.width(),
+                    mLayerBounds.height(),
                     (mFlags & Canvas.HAS_ALPHA_LAYER_SAVE_FLAG) != 0 ?
                             BufferedImage.TYPE_INT_ARGB :
                                 BufferedImage.TYPE_INT_RGB);
@@ -308,13 +359,13 @@ public class GcSnapshot {
             // create a graphics for it so that drawing can be done.
             Graphics2D layerGraphics = layerImage.createGraphics();
 
+            // create a new layer for this new layer and add it to the list at the end.
+            mLayers.add(mLocalLayer = new Layer(layerGraphics, layerImage, flags,
+                    mLayerBounds.left, mLayerBounds.top));
+
             // because this layer inherits the current context for transform and clip,
             // set them to one from the base layer.
-            AffineTransform currentMtx = baseLayer.getGraphics().getTransform();
-            layerGraphics.setTransform(currentMtx);
-
-            // create a new layer for this new layer and add it to the list at the end.
-            mLayers.add(mLocalLayer = new Layer(layerGraphics, layerImage, flags));
+            mLocalLayer.setTransform(baseLayer.getGraphics().getTransform());
 
             // set the clip on it.
             Shape currentClip = baseLayer.getGraphics().getClip();
@@ -325,23 +376,28 @@ public class GcSnapshot {
             // be drawn, so we create as small bitmaps as we can.
             // This is so that we can erase the drawing that goes in the layers below that will
             // be coming from the layer itself.
-            if ((mFlags & Canvas.CLIP_TO_LAYER_SAVE_FLAG) == 0) {
+            if (!clipToLayer) {
                 int w = mLayerBounds.width();
                 int h = mLayerBounds.height();
                 for (int i = 0 ; i < mLayers.size() - 1 ; i++) {
                     Layer layer = mLayers.get(i);
-                    BufferedImage image = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+                    int left = mLayerBounds.left - layer.getOffsetX();
+                    int top = mLayerBounds.top - layer.getOffsetY();
+                    BufferedImage image = ImagePoolProvider.get().acquireBufferedImage(w, h,
+                            BufferedImage.TYPE_INT_ARGB);
                     Graphics2D graphics = image.createGraphics();
                     graphics.drawImage(layer.getImage(),
                             0, 0, w, h,
-                            mLayerBounds.left, mLayerBounds.top,
-                                    mLayerBounds.right, mLayerBounds.bottom,
+                            left, top, left + w, top + h,
                             null);
                     graphics.dispose();
                     layer.setOriginalCopy(image);
                 }
             }
         } else {
+            // Either a normal save(), or a layer that does not clip and whose area is empty,
+            // which draws like a normal save().
+            mSkipDrawing = mPrevious.mSkipDrawing;
             mLocalLayer = null;
             mLayerBounds = null;
         }
@@ -349,10 +405,50 @@ public class GcSnapshot {
         mLocalLayerPaint  = paint;
     }
 
+    /**
+     * Returns the area of the base layer that a layer with the given bounds can draw to, that is
+     * its bounds mapped with the current transform and intersected with the current clip and the
+     * base layer.
+     */
+    private Rect getVisibleLayerBounds(RectF layerBounds) {
+        // get the current transform
+        AffineTransform matrix = mLayers.get(0).getGraphics().getTransform();
+
+        // transform the layerBounds with the current transform and stores it into a int rect
+        RectF rect2 = new RectF();
+        mapRect(matrix, rect2, layerBounds);
+        Rect bounds = new Rect();
+        rect2.round(bounds);
+
+        BufferedImage baseImage = mLayers.get(0).getImage();
+        if (!bounds.intersect(0, 0, baseImage.getWidth(), baseImage.getHeight())) {
+            return new Rect();
+        }
+
+        Shape clip = mLayers.get(0).getGraphics().getClip();
+        if (clip != null) {
+            Rectangle clipBounds = matrix.createTransformedShape(clip).getBounds();
+            if (!bounds.intersect(clipBounds.x, clipBounds.y, clipBounds.x + clipBounds.width,
+                    clipBounds.y + clipBounds.height)) {
+                return new Rect();
+            }
+        }
+        return bounds;
+    }
+
+    /**
+     * Returns whether a layer restored with the given paint is not visible.
+     */
+    private static boolean isInvisible(Paint_Delegate paint) {
+        return paint != null && paint.getAlpha() == 0 &&
+                PorterDuff.intToMode(paint.getPorterDuffMode()) == Mode.SRC_OVER;
+    }
+
     public void dispose() {
         for (Layer layer : mLayers) {
             layer.getGraphics().dispose();
         }
+        releaseLayerImages();
 
         if (mPrevious != null) {
             mPrevious.dispose();
@@ -471,7 +567,7 @@ public class GcSnapshot {
     public void setTransform(AffineTransform transform) {
         if (mLayers.size() > 0) {
             for (Layer layer : mLayers) {
-                layer.getGraphics().setTransform(transform);
+                layer.setTransform(transform);
             }
         } else {
             if (mTransform == null) {
@@ -490,32 +586,35 @@ public class GcSnapshot {
                 layer.clip(shape);
             }
 
-            Shape currentClip = getClip();
-            return currentClip != null && currentClip.getBounds().isEmpty() == false;
+            return hasVisibleClip();
         }
 
-        Area area = null;
+        Shape clip;
 
         if (regionOp == Region.Op.REPLACE.nativeInt) {
-            area = new Area(shape);
+            clip = shape instanceof Rectangle2D ? shape : new Area(shape);
         } else {
-            area = Region_Delegate.combineShapes(getClip(), shape, regionOp);
+            // Rectangular clips are kept as rectangles, which Graphics2D handles much faster
+            // than an Area.
+            clip = Region_Delegate.combineRectangles(getClip(), shape, regionOp);
+            if (clip == null) {
+                clip = Region_Delegate.combineShapes(getClip(), shape, regionOp);
+            }
         }
 
-        assert area != null;
+        assert clip != null;
 
         if (mLayers.size() > 0) {
-            if (area != null) {
+            if (clip != null) {
                 for (Layer layer : mLayers) {
-                    layer.setClip(area);
+                    layer.setClip(clip);
                 }
             }
 
-            Shape currentClip = getClip();
-            return currentClip != null && currentClip.getBounds().isEmpty() == false;
+            return hasVisibleClip();
         } else {
-            if (area != null) {
-                mClip = area;
+            if (clip != null) {
+                mClip = clip;
             } else {
                 mClip = new Area();
             }
@@ -524,10 +623,31 @@ public class GcSnapshot {
         }
     }
 
+    /**
+     * Returns whether the clip of the layers is not empty.
+     */
+    private boolean hasVisibleClip() {
+        Rectangle bounds = getClipBounds();
+        return bounds != null && bounds.isEmpty() == false;
+    }
+
     public boolean clipRect(float left, float top, float right, float bottom, int regionOp) {
         return clip(new Rectangle2D.Float(left, top, right - left, bottom - top), regionOp);
     }
 
+    /**
+     * Returns the bounds of the current clip, or null if none have been setup. Unlike
+     * {@link #getClip()}, this does not create a copy of the clip shape.
+     */
+    public Rectangle getClipBounds() {
+        if (mLayers.size() > 0) {
+            // they all have the same clip
+            return mLayers.get(0).getGraphics().getClipBounds();
+        } else {
+            return mClip != null ? mClip.getBounds() : null;
+        }
+    }
+
     /**
      * Returns the current clip, or null if none have been setup.
      */
@@ -574,6 +694,10 @@ public class GcSnapshot {
      */
     public void draw(Drawable drawable, Paint_Delegate paint, boolean compositeOnly,
             boolean forceSrcMode) {
+        if (mSkipDrawing) {
+            // Drawing in a layer that is not visible.
+            return;
+        }
         int forceMode = forceSrcMode ? AlphaComposite.SRC : 0;
         // the current snapshot may not have a mLocalLayer (ie it was created on save() instead
         // of saveLayer(), but that doesn't mean there's no layer.
@@ -616,8 +740,11 @@ public class GcSnapshot {
                 return;
             }
 
-            Rectangle clipBounds = originalGraphics.getClip() != null ? originalGraphics
-                    .getClipBounds() : null;
+            // The clip of the graphics is in user space, the temporary image is in the device
+            // space of the layer.
+            Shape clip = originalGraphics.getClip();
+            Rectangle clipBounds = clip != null ? originalGraphics.getTransform()
+                    .createTransformedShape(clip).getBounds() : null;
             if (clipBounds != null) {
                 if (clipBounds.width == 0 || clipBounds.height == 0) {
                     // Clip is 0 so no need to paint anything.
@@ -625,15 +752,21 @@ public class GcSnapshot {
                 }
             }
 
-            // b/63692596:
-            // Don't use the size of clip bound because it may be smaller than original size.
-            // Which makes Vector Drawable pixelized.
-            int width = layer.getImage().getWidth();
-            int height = layer.getImage().getHeight();
+            // The temporary image only covers the part of the layer that can be drawn, that is
+            // the clip bounds. Its pixels map 1:1 to the ones of the layer, the drawing is only
+            // translated, so vector drawables are not pixelized (b/63692596).
+            Rectangle bounds = new Rectangle(0, 0, layer.getImage().getWidth(),
+                    layer.getImage().getHeight());
+            if (clipBounds != null) {
+                bounds = bounds.intersection(clipBounds);
+                if (bounds.isEmpty()) {
+                    return;
+                }
+            }
 
             // Create a temporary image to which the color filter will be applied.
-            BufferedImage image = new BufferedImage(width, height,
-                    BufferedImage.TYPE_INT_ARGB);
+            BufferedImage image = ImagePoolProvider.get().acquireBufferedImage(bounds.width,
+                    bounds.height, BufferedImage.TYPE_INT_ARGB);
             Graphics2D imageBaseGraphics = (Graphics2D) image.getGraphics();
             // Configure the Graphics2D object with drawing parameters and shader.
             Graphics2D imageGraphics = createCustomGraphics(
@@ -648,24 +781,28 @@ public class GcSnapshot {
                 // The main draw operation.
                 // We translate the operation to take into account that the rendering does not
                 // know about the clipping area.
-                imageGraphics.setTransform(originalGraphics.getTransform());
+                AffineTransform transform =
+                        AffineTransform.getTranslateInstance(-bounds.x, -bounds.y);
+                transform.concatenate(originalGraphics.getTransform());
+                imageGraphics.setTransform(transform);
                 drawable.draw(imageGraphics, paint);
 
                 // Apply the color filter.
                 // Restore the original coordinates system and apply the filter only to the
                 // clipped area.
                 imageGraphics.setTransform(new AffineTransform());
-                filter.applyFilter(imageGraphics, width, height);
+                filter.applyFilter(imageGraphics, bounds.width, bounds.height);
 
                 // Draw the tinted image on the main layer using as start point the clipping
                 // upper left coordinates.
-                configuredGraphics.drawImage(image, 0, 0, null);
+                configuredGraphics.drawImage(image, bounds.x, bounds.y, null);
                 layer.change();
             } finally {
                 // dispose Graphics2D objects
                 imageGraphics.dispose();
                 imageBaseGraphics.dispose();
                 configuredGraphics.dispose();
+                ImagePoolProvider.get().release(image);
             }
         }
     }
@@ -704,7 +841,7 @@ public class GcSnapshot {
             if ((mFlags & Canvas.MATRIX_SAVE_FLAG) == 0) {
                 AffineTransform mtx = getTransform();
                 for (Layer layer : mPrevious.mLayers) {
-                    layer.getGraphics().setTransform(mtx);
+                    layer.setTransform(mtx);
                 }
             }
 
@@ -720,14 +857,44 @@ public class GcSnapshot {
         for (Layer layer : mLayers) {
             layer.getGraphics().dispose();
         }
+        releaseLayerImages();
 
         return mPrevious;
     }
 
+    /**
+     * Gives the images created for the local layer back to the {@link ImagePool}. Only this
+     * snapshot and the ones saved on top of it use them, and those are restored or disposed
+     * first.
+     */
+    private void releaseLayerImages() {
+        if (mLocalLayer == null || mLayerImagesReleased) {
+            return;
+        }
+        mLayerImagesReleased = true;
+
+        ImagePool pool = ImagePoolProvider.get();
+        for (Layer layer : mLayers) {
+            BufferedImage originalCopy = layer.getOriginalCopy();
+            if (originalCopy != null) {
+                layer.setOriginalCopy(null);
+                pool.release(originalCopy);
+            }
+        }
+        pool.release(mLocalLayer.getImage());
+    }
+
     private void restoreLayer(Layer dstLayer) {
 
         Graphics2D baseGfx = dstLayer.getImage().createGraphics();
 
+        // the layer bounds are in the coordinates of the base layer, the images of the
+        // local layer and of the destination layer can be at another position.
+        int left = mLayerBounds.left - dstLayer.getOffsetX();
+        int top = mLayerBounds.top - dstLayer.getOffsetY();
+        int width = mLayerBounds.width();
+        int height = mLayerBounds.height();
+
         // if the layer contains an original copy this means the flags
         // didn't restrict drawing to the local layer and we need to make sure the
         // layer bounds in the layer beneath didn't receive any drawing.
@@ -738,8 +905,8 @@ public class GcSnapshot {
             g.setComposite(AlphaComposite.Src);
 
             g.drawImage(originalCopy,
-                    mLayerBounds.left, mLayerBounds.top, mLayerBounds.right, mLayerBounds.bottom,
-                    0, 0, mLayerBounds.width(), mLayerBounds.height(),
+                    left, top, left + width, top + height,
+                    0, 0, width, height,
                     null);
             g.dispose();
         }
@@ -749,9 +916,11 @@ public class GcSnapshot {
         Graphics2D g = createCustomGraphics(baseGfx, mLocalLayerPaint,
                 true /*alphaOnly*/, 0 /*forceMode*/);
 
+        int srcLeft = mLayerBounds.left - mLocalLayer.getOffsetX();
+        int srcTop = mLayerBounds.top - mLocalLayer.getOffsetY();
         g.drawImage(mLocalLayer.getImage(),
-                mLayerBounds.left, mLayerBounds.top, mLayerBounds.right, mLayerBounds.bottom,
-                mLayerBounds.left, mLayerBounds.top, mLayerBounds.right, mLayerBounds.bottom,
+                left, top, left + width, top + height,
+                srcLeft, srcTop, srcLeft + width, srcTop + height,
                 null);
         g.dispose();
 
@@ -39,11 +39,13 @@ import com.android.resources.ScreenOrientation;
 import android.annotation.NonNull;
 import android.annotation.Nullable;
 import android.graphics.Color;
+import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
 import android.util.DisplayMetrics;
 import android.util.TypedValue;
 import android.view.AttachInfo_Accessor;
 import android.view.View;
+import android.view.ViewParent;
 import android.view.ViewRootImpl;
 import android.view.ViewRootImpl_Accessor;
 import android.widget.FrameLayout;
@@ -136,6 +138,18 @@ class Layout extends FrameLayout {
      */
     private FrameLayout mContentRoot;
 
+    /**
+     * Area invalidated by the children since the last {@link #takeDamage()}, in the Layout
+     * coordinates.
+     */
+    private final Rect mDamage = new Rect();
+
+    /**
+     * Whether the Layout itself was invalidated since the last {@link #takeDamage()}, in which
+     * case the whole Layout needs to be redrawn.
+     */
+    private boolean mFullDamage = true;
+
     public Layout(@NonNull Builder builder) {
         super(builder.mContext);
 
@@ -187,6 +201,11 @@ class Layout extends FrameLayout {
             frameworkActionBar = bar.getRootView();
         }
 
+        if (Boolean.TRUE.equals(
+                getParams().getFlag(RenderParamsFlags.FLAG_KEY_CACHE_SYSTEM_BARS))) {
+            setSoftwareLayer(statusBar, navBar, titleBar);
+        }
+
         mSysUiRoot = new RelativeLayout(builder.mContext);
         addSystemUiViews(titleBar, mContentRoot == null ? (mContentRoot = createContentFrame()) : frameworkActionBar,
                 statusBar, navBar, appCompatActionBar);
@@ -360,6 +379,18 @@ class Layout extends FrameLayout {
         return navBar;
     }
 
+    /**
+     * Draws the given views through a software layer, so that they are only redrawn when they are
+     * invalidated. The other renders copy the bitmap of the layer.
+     */
+    private static void setSoftwareLayer(@NonNull View... views) {
+        for (View view : views) {
+            if (view != null) {
+                view.setLayerType(LAYER_TYPE_SOFTWARE, null);
+            }
+        }
+    }
+
     private void addSystemUiViews(@NonNull View... views) {
         for (View view : views) {
             if (view != null) {
@@ -384,6 +415,61 @@ class Layout extends FrameLayout {
         }
     }
 
+    @Override
+    public ViewParent invalidateChildInParent(int[] location, Rect dirty) {
+        ViewParent parent = super.invalidateChildInParent(location, dirty);
+        // Layout is the root of the hierarchy so, at this point, dirty is in the Layout
+        // coordinates.
+        mDamage.union(dirty);
+        return parent;
+    }
+
+    @Override
+    public void invalidate(boolean invalidateCache) {
+        super.invalidate(invalidateCache);
+        mFullDamage = true;
+    }
+
+    @SuppressWarnings("deprecation")
+    @Override
+    public void invalidate(Rect dirty) {
+        super.invalidate(dirty);
+        addDamage(dirty.left, dirty.top, dirty.right, dirty.bottom);
+    }
+
+    @SuppressWarnings("deprecation")
+    @Override
+    public void invalidate(int l, int t, int r, int b) {
+        super.invalidate(l, t, r, b);
+        addDamage(l, t, r, b);
+    }
+
+    @Override
+    public void onDescendantInvalidated(@NonNull View child, @NonNull View target) {
+        super.onDescendantInvalidated(child, target);
+        // No dirty area is given so the whole Layout needs to be redrawn.
+        mFullDamage = true;
+    }
+
+    private void addDamage(int l, int t, int r, int b) {
+        // The dirty area is relative to the scrolled content
+        int scrollX = getScrollX();
+        int scrollY = getScrollY();
+        mDamage.union(l - scrollX, t - scrollY, r - scrollX, b - scrollY);
+    }
+
+    /**
+     * Returns the area of the Layout invalidated since the last call, or null if the whole Layout
+     * needs to be redrawn. The damage is reset by this call.
+     */
+    @Nullable
+    Rect takeDamage() {
+        Rect damage = mFullDamage ? null : new Rect(mDamage);
+        mDamage.setEmpty();
+        mFullDamage = false;
+        return damage;
+    }
+
     /**
      * A helper class to help initialize the Layout.
      */
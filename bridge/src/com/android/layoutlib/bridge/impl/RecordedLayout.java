@@ -0,0 +1,471 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.layoutlib.bridge.impl;
+
+import com.android.ide.common.rendering.api.ILayoutPullParser;
+import com.android.ide.common.rendering.api.ResourceNamespace;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A layout read once from an {@link ILayoutPullParser} and kept in memory.
+ * <p/>
+ * A parser can only be read once, so rendering the same layout for several configurations
+ * normally means parsing the XML once per configuration. The recorded layout can instead hand
+ * out any number of parsers, see {@link #newParser()}, that replay the events of the original
+ * parser, including the view cookies.
+ * <p/>
+ * The recording only contains what the parser returned, so it does not depend on the
+ * configuration the layout is rendered with.
+ */
+public final class RecordedLayout {
+
+    private static final String[] EMPTY = new String[0];
+
+    private final Event[] mEvents;
+    private final ResourceNamespace mLayoutNamespace;
+
+    /** One event of the recorded parser, with everything the parser returned for it. */
+    private static final class Event {
+        private int mType;
+        private int mDepth;
+        private String mName;
+        private String mNamespace;
+        private String mPrefix;
+        private String mText;
+        private boolean mEmptyElementTag;
+        private int mLineNumber;
+        private int mColumnNumber;
+        private String mPositionDescription;
+        private Object mViewCookie;
+        /** Namespace, name, prefix and value of each attribute. */
+        private String[] mAttributes = EMPTY;
+        /** Prefix and uri of each namespace declared by the tag. */
+        private String[] mNamespaceDeclarations = EMPTY;
+    }
+
+    private RecordedLayout(@NonNull List<Event> events,
+            @Nullable ResourceNamespace layoutNamespace) {
+        mEvents = events.toArray(new Event[0]);
+        mLayoutNamespace = layoutNamespace;
+    }
+
+    /**
+     * Reads the given parser until the end of the document. The parser should not have been
+     * read yet.
+     */
+    @NonNull
+    public static RecordedLayout record(@NonNull ILayoutPullParser parser)
+            throws XmlPullParserException, IOException {
+        List<Event> events = new ArrayList<>();
+        int namespaceCount = 0;
+        int type = parser.getEventType();
+        events.add(recordEvent(parser, type, 0));
+        while (type != XmlPullParser.END_DOCUMENT) {
+            type = parser.next();
+            Event event = recordEvent(parser, type, namespaceCount);
+            if (type == XmlPullParser.START_TAG) {
+                namespaceCount += event.mNamespaceDeclarations.length / 2;
+            } else if (type == XmlPullParser.END_TAG) {
+                namespaceCount = getNamespaceCount(parser, event.mDepth - 1);
+            }
+            events.add(event);
+        }
+
+        return new RecordedLayout(events, parser.getLayoutNamespace());
+    }
+
+    @NonNull
+    private static Event recordEvent(@NonNull ILayoutPullParser parser, int type,
+            int previousNamespaceCount) throws XmlPullParserException {
+        Event event = new Event();
+        event.mType = type;
+        event.mDepth = parser.getDepth();
+        event.mName = parser.getName();
+        event.mNamespace = parser.getNamespace();
+        event.mText = parser.getText();
+        event.mLineNumber = parser.getLineNumber();
+        event.mViewCookie = parser.getViewCookie();
+
+        if (type == XmlPullParser.START_TAG) {
+            int count = parser.getAttributeCount();
+            if (count > 0) {
+                event.mAttributes = new String[count * 4];
+                for (int i = 0; i < count; i++) {
+                    event.mAttributes[i * 4] = parser.getAttributeNamespace(i);
+                    event.mAttributes[i * 4 + 1] = parser.getAttributeName(i);
+                    event.mAttributes[i * 4 + 3] = parser.getAttributeValue(i);
+                }
+            }
+        }
+
+        // The IDE parsers do not all implement the methods the inflater does not use.
+        try {
+            event.mPrefix = parser.getPrefix();
+            event.mColumnNumber = parser.getColumnNumber();
+            event.mPositionDescription = parser.getPositionDescription();
+
+            if (type == XmlPullParser.START_TAG) {
+                event.mEmptyElementTag = parser.isEmptyElementTag();
+                for (int i = 0; i < event.mAttributes.length / 4; i++) {
+                    event.mAttributes[i * 4 + 2] = parser.getAttributePrefix(i);
+                }
+
+                int namespaceCount = getNamespaceCount(parser, event.mDepth);
+                if (namespaceCount > previousNamespaceCount) {
+                    event.mNamespaceDeclarations =
+                            new String[(namespaceCount - previousNamespaceCount) * 2];
+                    for (int i = previousNamespaceCount; i < namespaceCount; i++) {
+                        int index = (i - previousNamespaceCount) * 2;
+                        event.mNamespaceDeclarations[index] = parser.getNamespacePrefix(i);
+                        event.mNamespaceDeclarations[index + 1] = parser.getNamespaceUri(i);
+                    }
+                }
+            }
+        } catch (UnsupportedOperationException ignored) {
+        }
+
+        return event;
+    }
+
+    private static int getNamespaceCount(@NonNull ILayoutPullParser parser, int depth)
+            throws XmlPullParserException {
+        try {
+            return depth > 0 ? parser.getNamespaceCount(depth) : 0;
+        } catch (UnsupportedOperationException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Returns a new parser replaying the recorded layout from the start of the document.
+     */
+    @NonNull
+    public ILayoutPullParser newParser() {
+        return new ReplayParser();
+    }
+
+    /**
+     * {@link ILayoutPullParser} replaying the events of the {@link RecordedLayout}.
+     * <p/>
+     * Only {@link #next()} events were recorded, so {@link #nextToken()} is not supported.
+     */
+    private final class ReplayParser implements ILayoutPullParser {
+        private int mIndex;
+        private Event mEvent = mEvents[0];
+        /** Namespace declarations in scope, as prefix and uri pairs. */
+        private final List<String> mNamespaces = new ArrayList<>();
+        /** Number of namespace declarations in scope at each depth. */
+        private int[] mNamespaceCounts = new int[8];
+
+        @Override
+        public Object getViewCookie() {
+            return mEvent.mViewCookie;
+        }
+
+        @Override
+        public ResourceNamespace getLayoutNamespace() {
+            return mLayoutNamespace;
+        }
+
+        @Override
+        public int next() throws XmlPullParserException, IOException {
+            if (mIndex == mEvents.length - 1) {
+                return mEvent.mType;
+            }
+            mEvent = mEvents[++mIndex];
+
+            if (mEvent.mType == START_TAG) {
+                int depth = mEvent.mDepth;
+                if (depth >= mNamespaceCounts.length) {
+                    mNamespaceCounts = Arrays.copyOf(mNamespaceCounts, depth * 2);
+                }
+                int parentCount = mNamespaceCounts[depth - 1];
+                String[] declarations = mEvent.mNamespaceDeclarations;
+                mNamespaceCounts[depth] = parentCount + declarations.length / 2;
+                mNamespaces.subList(parentCount * 2, mNamespaces.size()).clear();
+                mNamespaces.addAll(Arrays.asList(declarations));
+            }
+            return mEvent.mType;
+        }
+
+        @Override
+        public int getEventType() throws XmlPullParserException {
+            return mEvent.mType;
+        }
+
+        @Override
+        public int getDepth() {
+            return mEvent.mDepth;
+        }
+
+        @Override
+        public String getName() {
+            return mEvent.mName;
+        }
+
+        @Override
+        public String getNamespace() {
+            return mEvent.mNamespace;
+        }
+
+        @Override
+        public String getPrefix() {
+            return mEvent.mPrefix;
+        }
+
+        @Override
+        public String getText() {
+            return mEvent.mText;
+        }
+
+        @Override
+        public char[] getTextCharacters(int[] holderForStartAndLength) {
+            if (mEvent.mText == null) {
+                holderForStartAndLength[0] = -1;
+                holderForStartAndLength[1] = -1;
+                return null;
+            }
+            holderForStartAndLength[0] = 0;
+            holderForStartAndLength[1] = mEvent.mText.length();
+            return mEvent.mText.toCharArray();
+        }
+
+        @Override
+        public boolean isWhitespace() throws XmlPullParserException {
+            if (mEvent.mType != TEXT && mEvent.mType != IGNORABLE_WHITESPACE &&
+                    mEvent.mType != CDSECT) {
+                throw new XmlPullParserException("Not a text event", this, null);
+            }
+            return mEvent.mText.trim().isEmpty();
+        }
+
+        @Override
+        public boolean isEmptyElementTag() throws XmlPullParserException {
+            if (mEvent.mType != START_TAG) {
+                throw new XmlPullParserException("Not a start tag", this, null);
+            }
+            return mEvent.mEmptyElementTag;
+        }
+
+        @Override
+        public int getLineNumber() {
+            return mEvent.mLineNumber;
+        }
+
+        @Override
+        public int getColumnNumber() {
+            return mEvent.mColumnNumber;
+        }
+
+        @Override
+        public String getPositionDescription() {
+            return mEvent.mPositionDescription;
+        }
+
+        @Override
+        public int getAttributeCount() {
+            return mEvent.mType == START_TAG ? mEvent.mAttributes.length / 4 : -1;
+        }
+
+        @Override
+        public String getAttributeNamespace(int index) {
+            return getAttributeData(index, 0);
+        }
+
+        @Override
+        public String getAttributeName(int index) {
+            return getAttributeData(index, 1);
+        }
+
+        @Override
+        public String getAttributePrefix(int index) {
+            return getAttributeData(index, 2);
+        }
+
+        @Override
+        public String getAttributeValue(int index) {
+            return getAttributeData(index, 3);
+        }
+
+        @Override
+        public String getAttributeType(int index) {
+            getAttributeData(index, 0);
+            return "CDATA";
+        }
+
+        @Override
+        public boolean isAttributeDefault(int index) {
+            getAttributeData(index, 0);
+            return false;
+        }
+
+        private String getAttributeData(int index, int offset) {
+            if (index < 0 || index >= mEvent.mAttributes.length / 4) {
+                throw new IndexOutOfBoundsException("Invalid attribute index " + index);
+            }
+            return mEvent.mAttributes[index * 4 + offset];
+        }
+
+        @Override
+        public String getAttributeValue(@Nullable String namespace, String name) {
+            String[] attributes = mEvent.mAttributes;
+            for (int i = 0; i < attributes.length; i += 4) {
+                if (attributes[i + 1].equals(name) &&
+                        (namespace == null || namespace.equals(attributes[i]))) {
+                    return attributes[i + 3];
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public int getNamespaceCount(int depth) throws XmlPullParserException {
+            if (depth > mEvent.mDepth) {
+                throw new IndexOutOfBoundsException("Depth " + depth + " is too deep");
+            }
+            return depth > 0 ? mNamespaceCounts[depth] : 0;
+        }
+
+        @Override
+        public String getNamespacePrefix(int pos) throws XmlPullParserException {
+            return mNamespaces.get(pos * 2);
+        }
+
+        @Override
+        public String getNamespaceUri(int pos) throws XmlPullParserException {
+            return mNamespaces.get(pos * 2 + 1);
+        }
+
+        @Override
+        public String getNamespace(String prefix) {
+            if ("xml".equals(prefix)) {
+                return "http://www.w3.org/XML/1998/namespace";
+            }
+            if ("xmlns".equals(prefix)) {
+                return "http://www.w3.org/2000/xmlns/";
+            }
+            for (int i = mNamespaceCounts[mEvent.mDepth] - 1; i >= 0; i--) {
+                String declaredPrefix = mNamespaces.get(i * 2);
+                if (prefix == null ? declaredPrefix == null : prefix.equals(declaredPrefix)) {
+                    return mNamespaces.get(i * 2 + 1);
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public void require(int type, String namespace, String name)
+                throws XmlPullParserException, IOException {
+            if (type != mEvent.mType || (namespace != null && !namespace.equals(getNamespace())) ||
+                    (name != null && !name.equals(getName()))) {
+                throw new XmlPullParserException("expected " + TYPES[type], this, null);
+            }
+        }
+
+        @Override
+        public String nextText() throws XmlPullParserException, IOException {
+            if (mEvent.mType != START_TAG) {
+                throw new XmlPullParserException("precondition: START_TAG", this, null);
+            }
+            int type = next();
+            String result;
+            if (type == TEXT) {
+                result = getText();
+                type = next();
+            } else {
+                result = "";
+            }
+            if (type != END_TAG) {
+                throw new XmlPullParserException("END_TAG expected", this, null);
+            }
+            return result;
+        }
+
+        @Override
+        public int nextTag() throws XmlPullParserException, IOException {
+            int type = next();
+            if (type == TEXT && isWhitespace()) {
+                type = next();
+            }
+            if (type != START_TAG && type != END_TAG) {
+                throw new XmlPullParserException("expected start or end tag", this, null);
+            }
+            return type;
+        }
+
+        @Override
+        public boolean getFeature(String name) {
+            return FEATURE_PROCESS_NAMESPACES.equals(name);
+        }
+
+        @Override
+        public Object getProperty(String name) {
+            return null;
+        }
+
+        @Override
+        public String getInputEncoding() {
+            return null;
+        }
+
+        // -- The recorded events can't be changed.
+
+        @Override
+        public void setFeature(String name, boolean state) throws XmlPullParserException {
+            throw new UnsupportedOperationException("The recorded layout can't be modified.");
+        }
+
+        @Override
+        public void setProperty(String name, Object value) throws XmlPullParserException {
+            throw new UnsupportedOperationException("The recorded layout can't be modified.");
+        }
+
+        @Override
+        public void setInput(Reader in) throws XmlPullParserException {
+            throw new UnsupportedOperationException("The recorded layout can't be modified.");
+        }
+
+        @Override
+        public void setInput(InputStream inputStream, String inputEncoding)
+                throws XmlPullParserException {
+            throw new UnsupportedOperationException("The recorded layout can't be modified.");
+        }
+
+        @Override
+        public void defineEntityReplacementText(String entityName, String replacementText)
+                throws XmlPullParserException {
+            throw new UnsupportedOperationException("The recorded layout can't be modified.");
+        }
+
+        @Override
+        public int nextToken() throws XmlPullParserException, IOException {
+            throw new UnsupportedOperationException("Only next() events are recorded.");
+        }
+    }
+}
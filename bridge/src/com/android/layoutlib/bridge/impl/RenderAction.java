@@ -23,6 +23,8 @@ import com.android.ide.common.rendering.api.RenderResources;
 import com.android.ide.common.rendering.api.Result;
 import com.android.layoutlib.bridge.Bridge;
 import com.android.layoutlib.bridge.android.BridgeContext;
+import com.android.layoutlib.bridge.android.RenderParamsFlags;
+import com.android.layoutlib.bridge.impl.RenderLockQueue.Priority;
 import com.android.resources.Density;
 import com.android.resources.ScreenOrientation;
 import com.android.resources.ScreenRound;
@@ -41,11 +43,8 @@ import android.view.WindowManagerGlobal_Delegate;
 import android.view.inputmethod.InputMethodManager_Accessor;
 
 import java.util.Locale;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 
-import static com.android.ide.common.rendering.api.Result.Status.ERROR_LOCK_INTERRUPTED;
-import static com.android.ide.common.rendering.api.Result.Status.ERROR_TIMEOUT;
 import static com.android.ide.common.rendering.api.Result.Status.SUCCESS;
 
 /**
@@ -65,14 +64,26 @@ public abstract class RenderAction<T extends RenderParams> {
     /**
      * The current context being rendered. This is set through {@link #acquire(long)} and
      * {@link #init(long)}, and unset in {@link #release()}.
+     * <p>
+     * It is only written by the thread holding {@link Bridge#getLock()} but other threads can read
+     * it, so it is volatile.
      */
     @VisibleForTesting
-    static BridgeContext sCurrentContext = null;
+    static volatile BridgeContext sCurrentContext = null;
 
     private final T mParams;
 
     private BridgeContext mContext;
 
+    /**
+     * {@link System#nanoTime()} at which this action acquired the render lock, or 0 if it does
+     * not hold it.
+     */
+    private long mLockAcquiredNanos;
+
+    /** The delegates created while this action holds the render lock are attributed to it. */
+    private final DelegateManager.Owner mDelegateOwner;
+
     /**
      * Creates a renderAction.
      * <p>
@@ -84,6 +95,8 @@ public abstract class RenderAction<T extends RenderParams> {
      */
     protected RenderAction(T params) {
         mParams = params;
+        mDelegateOwner = new DelegateManager.Owner(
+                getClass().getSimpleName() + "@" + Integer.toHexString(hashCode()));
     }
 
     /**
@@ -189,15 +202,15 @@ public abstract class RenderAction<T extends RenderParams> {
     private Result acquireLock(long timeout) {
         ReentrantLock lock = Bridge.getLock();
         if (!lock.isHeldByCurrentThread()) {
-            try {
-                boolean acquired = lock.tryLock(timeout, TimeUnit.MILLISECONDS);
-
-                if (!acquired) {
-                    return ERROR_TIMEOUT.createResult();
-                }
-            } catch (InterruptedException e) {
-                return ERROR_LOCK_INTERRUPTED.createResult();
+            Priority priority = Priority.fromFlag(
+                    mParams.getFlag(RenderParamsFlags.FLAG_KEY_RENDER_PRIORITY));
+            Result result = RenderLockQueue.acquire(lock, getClass(), priority,
+                    mParams.getProjectKey(), timeout);
+            if (result != null) {
+                return result;
             }
+            mLockAcquiredNanos = System.nanoTime();
+            DelegateManager.setCurrentOwner(mDelegateOwner);
         } else {
             // This thread holds the lock already. Checks that this wasn't for a different context.
             // If this is called by init, mContext will be null and so should sCurrentContext
@@ -222,7 +235,14 @@ public abstract class RenderAction<T extends RenderParams> {
         // not throw IllegalMonitorStateException.
         if (lock.isHeldByCurrentThread()) {
             tearDown();
-            lock.unlock();
+            DelegateManager.setCurrentOwner(null);
+            // Only the release that gives up the lock acquired by this action ends its hold.
+            long holdNanos = -1;
+            if (mLockAcquiredNanos != 0 && lock.getHoldCount() == 1) {
+                holdNanos = System.nanoTime() - mLockAcquiredNanos;
+                mLockAcquiredNanos = 0;
+            }
+            RenderLockQueue.release(lock, getClass(), holdNanos);
         }
     }
 
@@ -291,6 +311,16 @@ public abstract class RenderAction<T extends RenderParams> {
         return sCurrentContext;
     }
 
+    /**
+     * Returns the owner of the delegates created by this action. It stays valid after the action
+     * is disposed, to find the delegates it leaked.
+     *
+     * @see DelegateManager#getUsage(DelegateManager.Owner)
+     */
+    public DelegateManager.Owner getDelegateOwner() {
+        return mDelegateOwner;
+    }
+
     protected T getParams() {
         return mParams;
     }
@@ -0,0 +1,329 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.layoutlib.bridge.impl;
+
+import com.android.ide.common.rendering.api.Result;
+import com.android.internal.annotations.GuardedBy;
+import com.android.layoutlib.bridge.Bridge;
+import com.android.layoutlib.bridge.android.RenderParamsFlags;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+
+import java.io.PrintStream;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.android.ide.common.rendering.api.Result.Status.ERROR_LOCK_INTERRUPTED;
+import static com.android.ide.common.rendering.api.Result.Status.ERROR_TIMEOUT;
+
+/**
+ * Queue in front of the render lock ({@link Bridge#getLock()}).
+ * <p/>
+ * Waiting {@link RenderAction}s get the lock in order of {@link Priority} and, within the same
+ * priority, in order of arrival. A waiting {@link Priority#PREFETCH} request is cancelled when an
+ * {@link Priority#INTERACTIVE} request for the same project is queued, since the prefetched
+ * result is stale by then.
+ * <p/>
+ * The queue also keeps counters of the queue depth, the time spent waiting for the lock and the
+ * time the lock was held, per {@link RenderAction} subclass.
+ */
+public final class RenderLockQueue {
+
+    /**
+     * Priority of a render request, set with {@link RenderParamsFlags#FLAG_KEY_RENDER_PRIORITY}.
+     * The default is {@link #INTERACTIVE}.
+     */
+    public enum Priority {
+        INTERACTIVE("interactive"),
+        BACKGROUND("background"),
+        PREFETCH("prefetch");
+
+        private final String mFlagValue;
+
+        Priority(String flagValue) {
+            mFlagValue = flagValue;
+        }
+
+        @NonNull
+        static Priority fromFlag(@Nullable String flagValue) {
+            for (Priority priority : values()) {
+                if (priority.mFlagValue.equals(flagValue)) {
+                    return priority;
+                }
+            }
+            return INTERACTIVE;
+        }
+    }
+
+    /**
+     * The lock can be taken without going through the queue (for example by tests), in which case
+     * nobody notifies the waiting requests when it is released. Waiting requests re-check the lock
+     * at least this often.
+     */
+    private static final long MAX_WAIT_SLICE_MS = 10;
+
+    private static final Object sMonitor = new Object();
+    @GuardedBy("sMonitor")
+    private static final PriorityQueue<Ticket> sQueue = new PriorityQueue<>();
+    @GuardedBy("sMonitor")
+    private static long sSequence = 0;
+    @GuardedBy("sMonitor")
+    private static int sMaxQueueDepth = 0;
+
+    private static final Map<Class<?>, ActionStats> sStats = new ConcurrentHashMap<>();
+
+    private static final class Ticket implements Comparable<Ticket> {
+        private final Priority mPriority;
+        private final long mSequence;
+        @Nullable
+        private final Object mProjectKey;
+        private boolean mCancelled;
+
+        private Ticket(@NonNull Priority priority, long sequence, @Nullable Object projectKey) {
+            mPriority = priority;
+            mSequence = sequence;
+            mProjectKey = projectKey;
+        }
+
+        @Override
+        public int compareTo(@NonNull Ticket other) {
+            int result = mPriority.compareTo(other.mPriority);
+            return result != 0 ? result : Long.compare(mSequence, other.mSequence);
+        }
+    }
+
+    /**
+     * Lock statistics for one {@link RenderAction} subclass.
+     */
+    public static final class ActionStats {
+        private final AtomicLong mAcquireCount = new AtomicLong();
+        private final AtomicLong mTimeoutCount = new AtomicLong();
+        private final AtomicLong mCancelCount = new AtomicLong();
+        private final AtomicLong mQueueDepth = new AtomicLong();
+        private final AtomicLong mTotalWaitNanos = new AtomicLong();
+        private final AtomicLong mMaxWaitNanos = new AtomicLong();
+        private final AtomicLong mTotalHoldNanos = new AtomicLong();
+        private final AtomicLong mMaxHoldNanos = new AtomicLong();
+
+        private ActionStats() {
+        }
+
+        private void recordWait(long nanos) {
+            mAcquireCount.incrementAndGet();
+            mTotalWaitNanos.addAndGet(nanos);
+            mMaxWaitNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        private void recordHold(long nanos) {
+            mTotalHoldNanos.addAndGet(nanos);
+            mMaxHoldNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        /** Number of times the lock was acquired through the queue. */
+        public long getAcquireCount() {
+            return mAcquireCount.get();
+        }
+
+        /** Number of requests that timed out while waiting. */
+        public long getTimeoutCount() {
+            return mTimeoutCount.get();
+        }
+
+        /** Number of stale requests cancelled while waiting. */
+        public long getCancelCount() {
+            return mCancelCount.get();
+        }
+
+        /** Number of requests currently waiting for the lock. */
+        public long getQueueDepth() {
+            return mQueueDepth.get();
+        }
+
+        public long getTotalWaitNanos() {
+            return mTotalWaitNanos.get();
+        }
+
+        public long getMaxWaitNanos() {
+            return mMaxWaitNanos.get();
+        }
+
+        public long getTotalHoldNanos() {
+            return mTotalHoldNanos.get();
+        }
+
+        public long getMaxHoldNanos() {
+            return mMaxHoldNanos.get();
+        }
+    }
+
+    private RenderLockQueue() {
+    }
+
+    /**
+     * Waits for the given lock on behalf of a {@link RenderAction}.
+     *
+     * @param lock the render lock
+     * @param actionClass the class of the action, used for the statistics
+     * @param priority the priority of the request
+     * @param projectKey the project of the request, used to find stale requests
+     * @param timeout the maximum time to wait, in milliseconds
+     *
+     * @return null if the lock was acquired, or the {@link Result} explaining why it was not.
+     */
+    @Nullable
+    static Result acquire(@NonNull ReentrantLock lock, @NonNull Class<?> actionClass,
+            @NonNull Priority priority, @Nullable Object projectKey, long timeout) {
+        ActionStats stats = getStats(actionClass);
+        long start = System.nanoTime();
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(timeout, 0));
+
+        synchronized (sMonitor) {
+            if (priority == Priority.INTERACTIVE && projectKey != null) {
+                cancelStalePrefetches(projectKey);
+            }
+
+            Ticket ticket = new Ticket(priority, sSequence++, projectKey);
+            sQueue.add(ticket);
+            sMaxQueueDepth = Math.max(sMaxQueueDepth, sQueue.size());
+            stats.mQueueDepth.incrementAndGet();
+
+            try {
+                while (true) {
+                    if (ticket.mCancelled) {
+                        stats.mCancelCount.incrementAndGet();
+                        return ERROR_LOCK_INTERRUPTED.createResult(
+                                "Render request superseded by an interactive request");
+                    }
+
+                    if (sQueue.peek() == ticket && lock.tryLock()) {
+                        sQueue.poll();
+                        stats.recordWait(System.nanoTime() - start);
+                        // The next ticket becomes the head, let it check the lock.
+                        sMonitor.notifyAll();
+                        return null;
+                    }
+
+                    long remainingNanos = timeoutNanos - (System.nanoTime() - start);
+                    if (remainingNanos <= 0) {
+                        sQueue.remove(ticket);
+                        sMonitor.notifyAll();
+                        stats.mTimeoutCount.incrementAndGet();
+                        return ERROR_TIMEOUT.createResult();
+                    }
+
+                    sMonitor.wait(Math.max(1, Math.min(MAX_WAIT_SLICE_MS,
+                            TimeUnit.NANOSECONDS.toMillis(remainingNanos))));
+                }
+            } catch (InterruptedException e) {
+                sQueue.remove(ticket);
+                sMonitor.notifyAll();
+                return ERROR_LOCK_INTERRUPTED.createResult();
+            } finally {
+                stats.mQueueDepth.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Releases the lock acquired through {@link #acquire} and wakes up the waiting requests.
+     *
+     * @param holdNanos how long the lock was held, used for the statistics, or a negative value
+     *     if this release does not end a hold acquired through {@link #acquire}
+     */
+    static void release(@NonNull ReentrantLock lock, @NonNull Class<?> actionClass,
+            long holdNanos) {
+        lock.unlock();
+        if (holdNanos >= 0) {
+            getStats(actionClass).recordHold(holdNanos);
+        }
+
+        synchronized (sMonitor) {
+            sMonitor.notifyAll();
+        }
+    }
+
+    @GuardedBy("sMonitor")
+    private static void cancelStalePrefetches(@NonNull Object projectKey) {
+        boolean cancelled = false;
+        Iterator<Ticket> iterator = sQueue.iterator();
+        while (iterator.hasNext()) {
+            Ticket ticket = iterator.next();
+            if (ticket.mPriority == Priority.PREFETCH && projectKey.equals(ticket.mProjectKey)) {
+                ticket.mCancelled = true;
+                iterator.remove();
+                cancelled = true;
+            }
+        }
+
+        if (cancelled) {
+            sMonitor.notifyAll();
+        }
+    }
+
+    @NonNull
+    private static ActionStats getStats(@NonNull Class<?> actionClass) {
+        return sStats.computeIfAbsent(actionClass, k -> new ActionStats());
+    }
+
+    /**
+     * Returns the lock statistics for the given {@link RenderAction} subclass.
+     */
+    @NonNull
+    public static ActionStats getStatsFor(@NonNull Class<? extends RenderAction> actionClass) {
+        return getStats(actionClass);
+    }
+
+    /**
+     * Returns the number of requests currently waiting for the lock.
+     */
+    public static int getQueueDepth() {
+        synchronized (sMonitor) {
+            return sQueue.size();
+        }
+    }
+
+    /**
+     * Returns the maximum number of requests that waited for the lock at the same time.
+     */
+    public static int getMaxQueueDepth() {
+        synchronized (sMonitor) {
+            return sMaxQueueDepth;
+        }
+    }
+
+    public static void dump(PrintStream out) {
+        out.printf("Queue depth: %d (max %d)\n", getQueueDepth(), getMaxQueueDepth());
+        for (Map.Entry<Class<?>, ActionStats> entry : sStats.entrySet()) {
+            ActionStats stats = entry.getValue();
+            long count = Math.max(stats.getAcquireCount(), 1);
+            out.printf("%s: acquired %d, timed out %d, cancelled %d, waiting %d, " +
+                            "wait avg/max %d/%d ms, hold avg/max %d/%d ms\n",
+                    entry.getKey().getSimpleName(), stats.getAcquireCount(),
+                    stats.getTimeoutCount(), stats.getCancelCount(), stats.getQueueDepth(),
+                    TimeUnit.NANOSECONDS.toMillis(stats.getTotalWaitNanos() / count),
+                    TimeUnit.NANOSECONDS.toMillis(stats.getMaxWaitNanos()),
+                    TimeUnit.NANOSECONDS.toMillis(stats.getTotalHoldNanos() / count),
+                    TimeUnit.NANOSECONDS.toMillis(stats.getMaxHoldNanos()));
+        }
+    }
+}
@@ -48,6 +48,8 @@ import com.android.layoutlib.bridge.impl.binding.FakeExpandableAdapter;
 import com.android.tools.layoutlib.java.System_Delegate;
 import com.android.util.Pair;
 
+import org.xmlpull.v1.XmlPullParserException;
+
 import android.annotation.NonNull;
 import android.annotation.Nullable;
 import android.app.Fragment_Delegate;
@@ -55,8 +57,11 @@ import android.graphics.Bitmap;
 import android.graphics.Bitmap_Delegate;
 import android.graphics.Canvas;
 import android.graphics.NinePatch_Delegate;
+import android.graphics.Rect;
 import android.os.Looper;
 import android.preference.Preference_Delegate;
+import android.util.imagepool.ImagePool;
+import android.util.imagepool.ImagePoolProvider;
 import android.view.AttachInfo_Accessor;
 import android.view.BridgeInflater;
 import android.view.Choreographer_Delegate;
@@ -83,7 +88,9 @@ import java.awt.AlphaComposite;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
@@ -115,6 +122,11 @@ public class RenderSessionImpl extends RenderAction<SessionParams> {
     private int mMeasuredScreenWidth = -1;
     private int mMeasuredScreenHeight = -1;
     private boolean mIsAlphaChannelImage;
+    /**
+     * True if the view hierarchy has been laid out at the current screen size. Views requesting
+     * a layout since are detected with {@link View#isLayoutRequested()} on the root.
+     */
+    private boolean mLayoutValid;
     /** If >= 0, a frame will be executed */
     private long mElapsedFrameTimeNanos = -1;
     /** True if one frame has been already executed to start the animations */
@@ -122,9 +134,29 @@ public class RenderSessionImpl extends RenderAction<SessionParams> {
 
     // information being returned through the API
     private BufferedImage mImage;
+    /** Whether {@link #mImage} comes from the {@link ImagePool} and must be given back to it */
+    private boolean mIsImageFromPool;
     private List<ViewInfo> mViewInfoList;
     private List<ViewInfo> mSystemViewInfoList;
+    /**
+     * When reusing the ViewInfos between renders, the ViewInfo of each view in the previous and
+     * the current visit of the hierarchy. The children of the content root have a second ViewInfo,
+     * with the offset of the content root, kept in the content maps.
+     * Null unless {@link RenderParamsFlags#FLAG_KEY_VIEW_INFO_DELTA} is set.
+     */
+    private Map<View, ViewInfo> mPreviousViewInfos;
+    private Map<View, ViewInfo> mCurrentViewInfos;
+    private Map<View, ViewInfo> mPreviousContentViewInfos;
+    private Map<View, ViewInfo> mCurrentContentViewInfos;
+    private List<ViewInfo> mAddedViewInfos;
+    private List<ViewInfo> mChangedViewInfos;
+    private ViewInfoDelta mViewInfoDelta;
     private Layout.Builder mLayoutBuilder;
+    /** The parser to inflate, only kept until {@link #init(long)}. */
+    private ILayoutPullParser mLayoutParser;
+    /** The inflated layout, see {@link RenderParamsFlags#FLAG_KEY_RECORD_LAYOUT}. */
+    @Nullable
+    private RecordedLayout mRecordedLayout;
     private boolean mNewRenderSize;
 
     private static final class PostInflateException extends Exception {
@@ -145,7 +177,18 @@ public class RenderSessionImpl extends RenderAction<SessionParams> {
      * @see Bridge#createSession(SessionParams)
      */
     public RenderSessionImpl(SessionParams params) {
+        this(params, params.getLayoutDescription());
+    }
+
+    /**
+     * Creates a layout scene that inflates the given parser instead of the layout description of
+     * the params.
+     *
+     * @see Bridge#createSessions(List)
+     */
+    public RenderSessionImpl(SessionParams params, ILayoutPullParser layoutParser) {
         super(new SessionParams(params));
+        mLayoutParser = layoutParser;
     }
 
     /**
@@ -180,7 +223,16 @@ public class RenderSessionImpl extends RenderAction<SessionParams> {
         mInflater = new BridgeInflater(context, params.getLayoutlibCallback());
         context.setBridgeInflater(mInflater);
 
-        ILayoutPullParser layoutParser = params.getLayoutDescription();
+        ILayoutPullParser layoutParser = mLayoutParser;
+        mLayoutParser = null;
+        if (Boolean.TRUE.equals(params.getFlag(RenderParamsFlags.FLAG_KEY_RECORD_LAYOUT))) {
+            try {
+                mRecordedLayout = RecordedLayout.record(layoutParser);
+            } catch (XmlPullParserException | IOException e) {
+                return ERROR_INFLATION.createResult(e.getMessage(), e);
+            }
+            layoutParser = mRecordedLayout.newParser();
+        }
         mBlockParser = new BridgeXmlBlockParser(layoutParser, context, layoutParser.getLayoutNamespace());
 
         return SUCCESS.createResult();
@@ -199,6 +251,7 @@ public class RenderSessionImpl extends RenderAction<SessionParams> {
         HardwareConfig hardwareConfig = params.getHardwareConfig();
 
         mNewRenderSize = true;
+        mLayoutValid = false;
         mMeasuredScreenWidth = hardwareConfig.getScreenWidth();
         mMeasuredScreenHeight = hardwareConfig.getScreenHeight();
 
@@ -347,9 +400,7 @@ public class RenderSessionImpl extends RenderAction<SessionParams> {
                     mMeasuredScreenWidth, MeasureSpec.EXACTLY,
                     mMeasuredScreenHeight, MeasureSpec.EXACTLY);
             mViewRoot.layout(0, 0, mMeasuredScreenWidth, mMeasuredScreenHeight);
-            mSystemViewInfoList =
-                    visitAllChildren(mViewRoot, 0, 0, params.getExtendedViewInfoMode(),
-                    false);
+            visitViewRoot(params);
 
             Choreographer_Delegate.clearFrames();
 
@@ -391,6 +442,22 @@ public class RenderSessionImpl extends RenderAction<SessionParams> {
         handleScrolling(context, viewRoot);
     }
 
+    /**
+     * Runs a layout pass for the view root, unless it has already been laid out at the current
+     * size and no view requested a layout since.
+     *
+     * @return true if the previous layout was reused
+     */
+    private boolean layoutIfNeeded() {
+        if (mLayoutValid && !mViewRoot.isLayoutRequested()) {
+            return true;
+        }
+
+        doLayout(getContext(), mViewRoot, mMeasuredScreenWidth, mMeasuredScreenHeight);
+        mLayoutValid = true;
+        return false;
+    }
+
     /**
      * Renders the given view hierarchy to the passed canvas and returns the result of the render
      * operation.
@@ -408,6 +475,115 @@ public class RenderSessionImpl extends RenderAction<SessionParams> {
         return SUCCESS.createResult();
     }
 
+    /**
+     * Renders the layout to the passed canvas and returns the result of the render operation.
+     * <p/>
+     * If previousFrame is not null, it must contain the result of the previous render to the
+     * canvas. In that case, only the areas of the layout invalidated since then are erased to the
+     * given background color and redrawn. If nothing was invalidated, nothing is drawn.
+     * Otherwise, the whole layout is drawn.
+     *
+     * @param layout the root of the view hierarchy
+     * @param canvas the canvas to render the views to
+     * @param previousFrame the image backing the canvas, if it still contains the previous frame
+     * @param backgroundColor the color used to erase the damaged areas
+     */
+    private static Result renderDamage(@NonNull Layout layout, @NonNull Canvas canvas,
+            @Nullable BufferedImage previousFrame, int backgroundColor) {
+        AttachInfo_Accessor.dispatchOnPreDraw(layout);
+        // Take the damage even when doing a full redraw so it does not carry over to the next
+        // render.
+        Rect damage = layout.takeDamage();
+
+        if (previousFrame == null || damage == null) {
+            if (previousFrame != null) {
+                eraseArea(previousFrame, 0, 0, previousFrame.getWidth(),
+                        previousFrame.getHeight(), backgroundColor);
+            }
+            layout.draw(canvas);
+            return SUCCESS.createResult();
+        }
+
+        if (damage.isEmpty()) {
+            return SUCCESS.createResult();
+        }
+
+        // Shadows are drawn outside of the bounds of the views, so views casting one have to be
+        // fully redrawn along with their shadow.
+        //noinspection StatementWithEmptyBody
+        while (addShadowDamage(layout, 0, 0, damage)) {
+            // Repeat until no more shadows overlap the damage.
+        }
+
+        if (!damage.intersect(0, 0, previousFrame.getWidth(), previousFrame.getHeight())) {
+            return SUCCESS.createResult();
+        }
+
+        eraseArea(previousFrame, damage.left, damage.top, damage.width(), damage.height(),
+                backgroundColor);
+        int saveCount = canvas.save();
+        try {
+            canvas.clipRect(damage);
+            layout.draw(canvas);
+        } finally {
+            canvas.restoreToCount(saveCount);
+        }
+
+        return SUCCESS.createResult();
+    }
+
+    /**
+     * Extends the damage to the shadow area of the views casting a shadow that overlap it.
+     *
+     * @return true if the damage was modified
+     */
+    private static boolean addShadowDamage(@NonNull ViewGroup parent, float offsetX,
+            float offsetY, @NonNull Rect damage) {
+        boolean modified = false;
+        Rect shadowBounds = null;
+        int childCount = parent.getChildCount();
+        for (int i = 0; i < childCount; i++) {
+            View child = parent.getChildAt(i);
+            if (child.getVisibility() != View.VISIBLE) {
+                continue;
+            }
+
+            float left = offsetX + child.getX();
+            float top = offsetY + child.getY();
+            float elevation = child.getZ() - parent.getZ();
+            if (elevation > 0) {
+                // Shadows spread at most about twice the elevation around the view
+                int margin = (int) Math.ceil(2 * elevation);
+                if (shadowBounds == null) {
+                    shadowBounds = new Rect();
+                }
+                shadowBounds.set((int) Math.floor(left) - margin, (int) Math.floor(top) - margin,
+                        (int) Math.ceil(left + child.getWidth()) + margin,
+                        (int) Math.ceil(top + child.getHeight()) + margin);
+                if (Rect.intersects(shadowBounds, damage) && !damage.contains(shadowBounds)) {
+                    damage.union(shadowBounds);
+                    modified = true;
+                }
+            }
+
+            if (child instanceof ViewGroup) {
+                modified |= addShadowDamage((ViewGroup) child, left - child.getScrollX(),
+                        top - child.getScrollY(), damage);
+            }
+        }
+
+        return modified;
+    }
+
+    private static void eraseArea(@NonNull BufferedImage image, int x, int y, int width,
+            int height, int color) {
+        Graphics2D gc = image.createGraphics();
+        gc.setComposite(AlphaComposite.Src);
+        gc.setColor(new Color(color, true));
+        gc.fillRect(x, y, width, height);
+        gc.dispose();
+    }
+
     /**
      * Renders the scene.
      * <p>
@@ -415,16 +591,24 @@ public class RenderSessionImpl extends RenderAction<SessionParams> {
      *
      * @param freshRender whether the render is a new one and should erase the existing bitmap (in
      *      the case where bitmaps are reused). This is typically needed when not playing
-     *      animations.)
+     *      animations.) In incremental mode, only the damaged areas are erased.
+     *      <p/>
+     *      In measure only mode, this does the same as {@link #measure()}.
      *
      * @throws IllegalStateException if the current context is different than the one owned by
      *      the scene, or if {@link #acquire(long)} was not called.
      *
+     * @return the result of the render. On success, its data is {@link Boolean#TRUE} if the
+     *      measure and layout passes were skipped because no view requested a layout since the
+     *      previous render.
+     *
      * @see SessionParams#getRenderingMode()
      * @see RenderSession#render(long)
+     * @see RenderParamsFlags#FLAG_KEY_INCREMENTAL_RENDER
+     * @see RenderParamsFlags#FLAG_KEY_MEASURE_ONLY
      */
     public Result render(boolean freshRender) {
-        return renderAndBuildResult(freshRender, false);
+        return renderAndBuildResult(freshRender, isMeasureOnly(getParams()));
     }
 
     /**
@@ -435,6 +619,9 @@ public class RenderSessionImpl extends RenderAction<SessionParams> {
      * @throws IllegalStateException if the current context is different than the one owned by
      *      the scene, or if {@link #acquire(long)} was not called.
      *
+     * @return the result of the measure. On success, its data is {@link Boolean#TRUE} if the
+     *      previous layout was reused.
+     *
      * @see SessionParams#getRenderingMode()
      * @see RenderSession#render(long)
      */
@@ -471,15 +658,18 @@ public class RenderSessionImpl extends RenderAction<SessionParams> {
 
             HardwareConfig hardwareConfig = params.getHardwareConfig();
             Result renderResult = SUCCESS.createResult();
+            boolean layoutReused;
             if (onlyMeasure) {
                 // delete the canvas and image to reset them on the next full rendering
-                mImage = null;
+                releaseImage();
                 mCanvas = null;
-                doLayout(getContext(), mViewRoot, mMeasuredScreenWidth, mMeasuredScreenHeight);
+                layoutReused = layoutIfNeeded();
             } else {
                 // draw the views
                 // create the BufferedImage into which the layout will be rendered.
                 boolean newImage = false;
+                // whether mImage still contains the previous frame
+                boolean previousFrameKept = true;
 
                 // When disableBitmapCaching is true, we do not reuse mImage and
                 // we create a new one in every render.
@@ -490,10 +680,22 @@ public class RenderSessionImpl extends RenderAction<SessionParams> {
 
                 if (mNewRenderSize || mCanvas == null || disableBitmapCaching) {
                     mNewRenderSize = false;
+                    previousFrameKept = false;
+                    releaseImage();
                     if (params.getImageFactory() != null) {
                         mImage = params.getImageFactory().getImage(
                                 mMeasuredScreenWidth,
                                 mMeasuredScreenHeight);
+                    } else if (Boolean.TRUE.equals(params.getFlag(
+                            RenderParamsFlags.FLAG_KEY_POOLED_RESULT_IMAGE))) {
+                        // No need to clear the image if the background fills it below.
+                        mImage = ImagePoolProvider.get().acquireBufferedImage(
+                                mMeasuredScreenWidth,
+                                mMeasuredScreenHeight,
+                                BufferedImage.TYPE_INT_ARGB,
+                                !params.isBgColorOverridden());
+                        mIsImageFromPool = true;
+                        newImage = true;
                     } else {
                         mImage = new BufferedImage(
                                 mMeasuredScreenWidth,
@@ -538,7 +740,15 @@ public class RenderSessionImpl extends RenderAction<SessionParams> {
                     mCanvas.setDensity(hardwareConfig.getDensity().getDpiValue());
                 }
 
-                if (freshRender && !newImage) {
+                // In incremental mode, only the damaged areas are redrawn on top of the previous
+                // frame. This needs the image to map 1:1 to the layout.
+                boolean incrementalRender = previousFrameKept &&
+                        mImage.getWidth() == mMeasuredScreenWidth &&
+                        mImage.getHeight() == mMeasuredScreenHeight &&
+                        Boolean.TRUE.equals(params.getFlag(
+                                RenderParamsFlags.FLAG_KEY_INCREMENTAL_RENDER));
+
+                if (freshRender && !newImage && !incrementalRender) {
                     Graphics2D gc = mImage.createGraphics();
                     gc.setComposite(AlphaComposite.Src);
 
@@ -550,7 +760,7 @@ public class RenderSessionImpl extends RenderAction<SessionParams> {
                     gc.dispose();
                 }
 
-                doLayout(getContext(), mViewRoot, mMeasuredScreenWidth, mMeasuredScreenHeight);
+                layoutReused = layoutIfNeeded();
                 if (mElapsedFrameTimeNanos >= 0) {
                     long initialTime = System_Delegate.nanoTime();
                     if (!mFirstFrameExecuted) {
@@ -564,12 +774,17 @@ public class RenderSessionImpl extends RenderAction<SessionParams> {
                     // Second frame will move the animations
                     Choreographer_Delegate.doFrame(initialTime + mElapsedFrameTimeNanos);
                 }
-                renderResult = renderAndBuildResult(mViewRoot, mCanvas);
+                int backgroundColor =
+                        params.isBgColorOverridden() ? params.getOverrideBgColor() : 0x00000000;
+                renderResult = renderDamage((Layout) mViewRoot, mCanvas,
+                        incrementalRender ? mImage : null, backgroundColor);
             }
 
-            mSystemViewInfoList =
-                    visitAllChildren(mViewRoot, 0, 0, params.getExtendedViewInfoMode(),
-                    false);
+            visitViewRoot(params);
+
+            if (layoutReused && renderResult.isSuccess()) {
+                renderResult = SUCCESS.createResult(Boolean.TRUE);
+            }
 
             // success!
             return renderResult;
@@ -584,6 +799,18 @@ public class RenderSessionImpl extends RenderAction<SessionParams> {
         }
     }
 
+    /**
+     * Drops the reference to the result image, giving it back to the {@link ImagePool} if it came
+     * from there.
+     */
+    private void releaseImage() {
+        if (mImage != null && mIsImageFromPool) {
+            ImagePoolProvider.get().release(mImage);
+        }
+        mImage = null;
+        mIsImageFromPool = false;
+    }
+
     /**
      * Executes {@link View#measure(int, int)} on a given view with the given parameters (used
      * to create measure specs with {@link MeasureSpec#makeMeasureSpec(int, int)}.
@@ -892,15 +1119,15 @@ public class RenderSessionImpl extends RenderAction<SessionParams> {
      */
     private ViewInfo visit(View view, int hOffset, int vOffset, boolean setExtendedInfo,
             boolean isContentFrame) {
-        ViewInfo result = createViewInfo(view, hOffset, vOffset, setExtendedInfo, isContentFrame);
-
+        List<ViewInfo> children = null;
         if (view instanceof ViewGroup) {
             ViewGroup group = ((ViewGroup) view);
-            result.setChildren(visitAllChildren(group, isContentFrame ? 0 : hOffset,
+            children = visitAllChildren(group, isContentFrame ? 0 : hOffset,
                     isContentFrame ? 0 : vOffset,
-                    setExtendedInfo, isContentFrame));
+                    setExtendedInfo, isContentFrame);
         }
-        return result;
+        return obtainViewInfo(view, hOffset, vOffset, setExtendedInfo, isContentFrame, children,
+                mPreviousViewInfos, mCurrentViewInfos, true);
     }
 
     /**
@@ -969,17 +1196,207 @@ public class RenderSessionImpl extends RenderAction<SessionParams> {
             return result;
         }
 
-        result[0] = createViewInfo(view, 0, 0, setExtendedInfo, true);
-        result[1] = createViewInfo(view, hOffset, vOffset, setExtendedInfo, true);
+        List<ViewInfo> children = null;
         if (view instanceof ViewGroup) {
-            List<ViewInfo> children =
-                    visitAllChildren((ViewGroup) view, 0, 0, setExtendedInfo, true);
-            result[0].setChildren(children);
-            result[1].setChildren(children);
+            children = visitAllChildren((ViewGroup) view, 0, 0, setExtendedInfo, true);
+        }
+        // Only the ViewInfo with the offset, returned by getViewInfos(), is tracked in the delta
+        result[0] = obtainViewInfo(view, 0, 0, setExtendedInfo, true, children,
+                mPreviousViewInfos, mCurrentViewInfos, false);
+        result[1] = obtainViewInfo(view, hOffset, vOffset, setExtendedInfo, true, children,
+                mPreviousContentViewInfos, mCurrentContentViewInfos, true);
+        return result;
+    }
+
+    /**
+     * Visits the whole hierarchy and updates {@link #mSystemViewInfoList} and
+     * {@link #mViewInfoList}. When {@link RenderParamsFlags#FLAG_KEY_VIEW_INFO_DELTA} is set, the
+     * ViewInfos of the previous visit are reused where possible and {@link #mViewInfoDelta} is
+     * updated.
+     */
+    private void visitViewRoot(@NonNull SessionParams params) {
+        boolean trackChanges =
+                Boolean.TRUE.equals(params.getFlag(RenderParamsFlags.FLAG_KEY_VIEW_INFO_DELTA));
+        if (!trackChanges) {
+            mPreviousViewInfos = mCurrentViewInfos = null;
+            mPreviousContentViewInfos = mCurrentContentViewInfos = null;
+            mAddedViewInfos = mChangedViewInfos = null;
+            mViewInfoDelta = null;
+            visitHierarchy(params);
+            return;
+        }
+
+        if (mCurrentViewInfos == null) {
+            mPreviousViewInfos = new IdentityHashMap<>();
+            mCurrentViewInfos = new IdentityHashMap<>();
+            mPreviousContentViewInfos = new IdentityHashMap<>();
+            mCurrentContentViewInfos = new IdentityHashMap<>();
+        } else {
+            // Swap the maps to keep their capacity between visits.
+            Map<View, ViewInfo> swap = mPreviousViewInfos;
+            mPreviousViewInfos = mCurrentViewInfos;
+            mCurrentViewInfos = swap;
+            mCurrentViewInfos.clear();
+            swap = mPreviousContentViewInfos;
+            mPreviousContentViewInfos = mCurrentContentViewInfos;
+            mCurrentContentViewInfos = swap;
+            mCurrentContentViewInfos.clear();
+        }
+        mAddedViewInfos = new ArrayList<>();
+        mChangedViewInfos = new ArrayList<>();
+
+        visitHierarchy(params);
+
+        List<ViewInfo> removed = new ArrayList<>();
+        for (View view : mPreviousViewInfos.keySet()) {
+            if (!mCurrentViewInfos.containsKey(view)) {
+                ViewInfo info = mPreviousContentViewInfos.get(view);
+                removed.add(info != null ? info : mPreviousViewInfos.get(view));
+            }
+        }
+        mViewInfoDelta = new ViewInfoDelta(mAddedViewInfos, removed, mChangedViewInfos);
+        mAddedViewInfos = mChangedViewInfos = null;
+    }
+
+    /**
+     * Builds the ViewInfos of the hierarchy. In measure only mode, only the content of the layout
+     * is visited and no system ViewInfo is created.
+     */
+    private void visitHierarchy(@NonNull SessionParams params) {
+        boolean setExtendedInfo = params.getExtendedViewInfoMode();
+        if (!isMeasureOnly(params)) {
+            mSystemViewInfoList = visitAllChildren(mViewRoot, 0, 0, setExtendedInfo, false);
+            return;
+        }
+
+        // Offset of the content root, as computed by visitAllChildren for the system decor.
+        int hOffset = 0;
+        int vOffset = 0;
+        View view = mContentRoot;
+        while (view != null) {
+            hOffset += view.getLeft();
+            vOffset += view.getTop();
+            ViewParent parent = view != mViewRoot ? view.getParent() : null;
+            view = parent instanceof View ? (View) parent : null;
+        }
+
+        int childCount = mContentRoot.getChildCount();
+        List<ViewInfo> viewInfos = new ArrayList<>(childCount);
+        for (int i = 0; i < childCount; i++) {
+            viewInfos.add(visit(mContentRoot.getChildAt(i), hOffset, vOffset, setExtendedInfo,
+                    true));
+        }
+        mViewInfoList = viewInfos;
+        mSystemViewInfoList = Collections.emptyList();
+    }
+
+    private static boolean isMeasureOnly(@NonNull SessionParams params) {
+        return Boolean.TRUE.equals(params.getFlag(RenderParamsFlags.FLAG_KEY_MEASURE_ONLY));
+    }
+
+    /**
+     * Returns the ViewInfo for the view. If the view had an identical ViewInfo, with the same
+     * children, in the previous visit, it is reused. Otherwise a new one is created.
+     *
+     * @param children the ViewInfos of the children of the view, or null if it is not a ViewGroup
+     * @param previousInfos the ViewInfos of the previous visit, or null if they are not reused
+     * @param currentInfos where to record the ViewInfo returned, or null if they are not reused
+     * @param trackChanges whether to record the view in the added or changed views
+     */
+    private ViewInfo obtainViewInfo(View view, int hOffset, int vOffset, boolean setExtendedInfo,
+            boolean isContentFrame, @Nullable List<ViewInfo> children,
+            @Nullable Map<View, ViewInfo> previousInfos,
+            @Nullable Map<View, ViewInfo> currentInfos, boolean trackChanges) {
+        ViewInfo previous = previousInfos != null ? previousInfos.get(view) : null;
+        if (previous != null && hasSameChildren(previous, children) &&
+                isUpToDate(previous, view, hOffset, vOffset, setExtendedInfo, isContentFrame)) {
+            currentInfos.put(view, previous);
+            return previous;
+        }
+
+        ViewInfo result = createViewInfo(view, hOffset, vOffset, setExtendedInfo, isContentFrame);
+        if (children != null) {
+            result.setChildren(children);
+        }
+
+        if (currentInfos != null) {
+            currentInfos.put(view, result);
+            if (trackChanges) {
+                if (previous == null) {
+                    mAddedViewInfos.add(result);
+                } else {
+                    // Not only the bounds, anything checked by isUpToDate may have changed.
+                    mChangedViewInfos.add(result);
+                }
+            }
         }
         return result;
     }
 
+    private static boolean hasSameChildren(@NonNull ViewInfo info,
+            @Nullable List<ViewInfo> children) {
+        List<ViewInfo> previousChildren = info.getChildren();
+        if (children == null) {
+            return previousChildren == null || previousChildren.isEmpty();
+        }
+        if (previousChildren == null || previousChildren.size() != children.size()) {
+            return false;
+        }
+        for (int i = 0; i < children.size(); i++) {
+            if (previousChildren.get(i) != children.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether {@link #createViewInfo} would create a ViewInfo identical to the given one,
+     * ignoring the children.
+     */
+    private boolean isUpToDate(@NonNull ViewInfo info, @NonNull View view, int hOffset,
+            int vOffset, boolean setExtendedInfo, boolean isContentFrame) {
+        int shiftX = 0;
+        int shiftY = 0;
+        Object cookie;
+        if (isContentFrame) {
+            ViewParent parent = view.getParent();
+            int scrollX = parent != null ? ((View)parent).getScrollX() : 0;
+            int scrollY = parent != null ? ((View)parent).getScrollY() : 0;
+            shiftX = -scrollX + Math.round(view.getTranslationX()) + hOffset;
+            shiftY = -scrollY + Math.round(view.getTranslationY()) + vOffset;
+            cookie = getContext().getViewKey(view);
+        } else {
+            if (info.getViewType() != getSystemViewType(view)) {
+                return false;
+            }
+            cookie = getViewKey(view);
+        }
+
+        if (info.getCookie() != cookie ||
+                info.getLayoutParamsObject() != view.getLayoutParams() ||
+                info.getLeft() != shiftX + view.getLeft() ||
+                info.getTop() != shiftY + view.getTop() ||
+                info.getRight() != shiftX + view.getRight() ||
+                info.getBottom() != shiftY + view.getBottom()) {
+            return false;
+        }
+
+        if (setExtendedInfo) {
+            LayoutParams params = view.getLayoutParams();
+            MarginLayoutParams marginParams =
+                    params instanceof MarginLayoutParams ? (MarginLayoutParams) params : null;
+            return info.getBaseLine() == view.getBaseline() &&
+                    info.getLeftMargin() == (marginParams != null ? marginParams.leftMargin : 0) &&
+                    info.getTopMargin() == (marginParams != null ? marginParams.topMargin : 0) &&
+                    info.getRightMargin() ==
+                            (marginParams != null ? marginParams.rightMargin : 0) &&
+                    info.getBottomMargin() ==
+                            (marginParams != null ? marginParams.bottomMargin : 0);
+        }
+        return true;
+    }
+
     /**
      * Creates a {@link ViewInfo} for the view. The {@code ViewInfo} corresponding to the children
      * of the {@code view} are not created. Consequently, the children of {@code ViewInfo} is not
@@ -1020,35 +1437,7 @@ public class RenderSessionImpl extends RenderAction<SessionParams> {
                     view.getLeft(), view.getTop(), view.getRight(),
                     view.getBottom(), view, view.getLayoutParams());
             result = r;
-            // We currently mark three kinds of views:
-            // 1. Menus in the Action Bar
-            // 2. Menus in the Overflow popup.
-            // 3. The overflow popup button.
-            if (view instanceof ListMenuItemView) {
-                // Mark 2.
-                // All menus in the popup are of type ListMenuItemView.
-                r.setViewType(ViewType.ACTION_BAR_OVERFLOW_MENU);
-            } else {
-                // Mark 3.
-                ViewGroup.LayoutParams lp = view.getLayoutParams();
-                if (lp instanceof ActionMenuView.LayoutParams &&
-                        ((ActionMenuView.LayoutParams) lp).isOverflowButton) {
-                    r.setViewType(ViewType.ACTION_BAR_OVERFLOW);
-                } else {
-                    // Mark 1.
-                    // A view is a menu in the Action Bar is it is not the overflow button and of
-                    // its parent is of type ActionMenuView. We can also check if the view is
-                    // instanceof ActionMenuItemView but that will fail for menus using
-                    // actionProviderClass.
-                    while (parent != mViewRoot && parent instanceof ViewGroup) {
-                        if (parent instanceof ActionMenuView) {
-                            r.setViewType(ViewType.ACTION_BAR_MENU);
-                            break;
-                        }
-                        parent = parent.getParent();
-                    }
-                }
-            }
+            r.setViewType(getSystemViewType(view));
         }
 
         if (setExtendedInfo) {
@@ -1067,6 +1456,43 @@ public class RenderSessionImpl extends RenderAction<SessionParams> {
         return result;
     }
 
+    /**
+     * Returns the {@link ViewType} of a view of the system decor.
+     */
+    @NonNull
+    private ViewType getSystemViewType(@NonNull View view) {
+        // We currently mark three kinds of views:
+        // 1. Menus in the Action Bar
+        // 2. Menus in the Overflow popup.
+        // 3. The overflow popup button.
+        if (view instanceof ListMenuItemView) {
+            // Mark 2.
+            // All menus in the popup are of type ListMenuItemView.
+            return ViewType.ACTION_BAR_OVERFLOW_MENU;
+        }
+
+        // Mark 3.
+        ViewGroup.LayoutParams lp = view.getLayoutParams();
+        if (lp instanceof ActionMenuView.LayoutParams &&
+                ((ActionMenuView.LayoutParams) lp).isOverflowButton) {
+            return ViewType.ACTION_BAR_OVERFLOW;
+        }
+
+        // Mark 1.
+        // A view is a menu in the Action Bar is it is not the overflow button and of
+        // its parent is of type ActionMenuView. We can also check if the view is
+        // instanceof ActionMenuItemView but that will fail for menus using
+        // actionProviderClass.
+        ViewParent parent = view.getParent();
+        while (parent != mViewRoot && parent instanceof ViewGroup) {
+            if (parent instanceof ActionMenuView) {
+                return ViewType.ACTION_BAR_MENU;
+            }
+            parent = parent.getParent();
+        }
+        return ViewType.SYSTEM_UNKNOWN;
+    }
+
     /* (non-Javadoc)
      * The cookie for menu items are stored in menu item and not in the map from View stored in
      * BridgeContext.
@@ -1114,6 +1540,24 @@ public class RenderSessionImpl extends RenderAction<SessionParams> {
         return mSystemViewInfoList;
     }
 
+    /**
+     * Returns the changes in the ViewInfo hierarchy made by the last render, or null if
+     * {@link RenderParamsFlags#FLAG_KEY_VIEW_INFO_DELTA} is not set.
+     */
+    @Nullable
+    public ViewInfoDelta getViewInfoDelta() {
+        return mViewInfoDelta;
+    }
+
+    /**
+     * Returns the layout inflated by the session, or null if
+     * {@link RenderParamsFlags#FLAG_KEY_RECORD_LAYOUT} is not set or the session is disposed.
+     */
+    @Nullable
+    public RecordedLayout getRecordedLayout() {
+        return mRecordedLayout;
+    }
+
     public Map<Object, Map<ResourceReference, ResourceValue>> getDefaultNamespacedProperties() {
         return getContext().getDefaultProperties();
     }
@@ -1160,7 +1604,11 @@ public class RenderSessionImpl extends RenderAction<SessionParams> {
         if (mSystemViewInfoList != null) {
             mSystemViewInfoList.clear();
         }
-        mImage = null;
+        mPreviousViewInfos = mCurrentViewInfos = null;
+        mPreviousContentViewInfos = mCurrentContentViewInfos = null;
+        mViewInfoDelta = null;
+        mRecordedLayout = null;
+        releaseImage();
         mViewRoot = null;
         mContentRoot = null;
         NinePatch_Delegate.clearCache();
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.layoutlib.bridge.impl;
+
+import com.android.ide.common.rendering.api.ViewInfo;
+
+import android.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Changes in the {@link ViewInfo} hierarchy of a session between two renders.
+ * <p/>
+ * Views are matched by their view object. The {@link ViewInfo} of a view that is not reported here
+ * is the same object in the two hierarchies, so it can be kept as is.
+ *
+ * @see com.android.layoutlib.bridge.android.RenderParamsFlags#FLAG_KEY_VIEW_INFO_DELTA
+ */
+public final class ViewInfoDelta {
+    private final List<ViewInfo> mAdded;
+    private final List<ViewInfo> mRemoved;
+    private final List<ViewInfo> mChanged;
+
+    ViewInfoDelta(@NonNull List<ViewInfo> added, @NonNull List<ViewInfo> removed,
+            @NonNull List<ViewInfo> changed) {
+        mAdded = Collections.unmodifiableList(added);
+        mRemoved = Collections.unmodifiableList(removed);
+        mChanged = Collections.unmodifiableList(changed);
+    }
+
+    /**
+     * Returns the {@link ViewInfo}s of the views that were not in the previous hierarchy, in
+     * traversal order.
+     */
+    @NonNull
+    public List<ViewInfo> getAdded() {
+        return mAdded;
+    }
+
+    /**
+     * Returns the {@link ViewInfo}s, from the previous hierarchy, of the views that are not in the
+     * new one.
+     */
+    @NonNull
+    public List<ViewInfo> getRemoved() {
+        return mRemoved;
+    }
+
+    /**
+     * Returns the new {@link ViewInfo}s of the views that were in the previous hierarchy but whose
+     * {@link ViewInfo} was created again, in traversal order. This happens when the bounds, the
+     * children, the cookie or the layout params of the view changed, or, with the extended view
+     * info mode, its baseline or margins.
+     */
+    @NonNull
+    public List<ViewInfo> getChanged() {
+        return mChanged;
+    }
+
+    public boolean isEmpty() {
+        return mAdded.isEmpty() && mRemoved.isEmpty() && mChanged.isEmpty();
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.graphics;
+
+import java.awt.geom.Area;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+
+import junit.framework.TestCase;
+
+public class Region_DelegateTest extends TestCase {
+
+    public void testCombineRectangles() {
+        Rectangle2D rect1 = new Rectangle2D.Float(0, 0, 10, 10);
+
+        assertEquals(new Rectangle2D.Float(5, 5, 5, 5), Region_Delegate.combineRectangles(
+                rect1, new Rectangle2D.Float(5, 5, 10, 10), Region.Op.INTERSECT.nativeInt));
+        assertTrue(Region_Delegate.combineRectangles(rect1,
+                new Rectangle2D.Float(20, 20, 10, 10), Region.Op.INTERSECT.nativeInt).isEmpty());
+        assertEquals(new Rectangle2D.Float(0, 5, 10, 5), Region_Delegate.combineRectangles(
+                rect1, new Rectangle2D.Float(-5, -5, 20, 10), Region.Op.DIFFERENCE.nativeInt));
+        assertEquals(new Rectangle2D.Float(0, 0, 10, 15), Region_Delegate.combineRectangles(
+                new Area(rect1), new Rectangle2D.Float(0, 5, 10, 10), Region.Op.UNION.nativeInt));
+    }
+
+    public void testCombineRectanglesNotRectangular() {
+        Rectangle2D rect1 = new Rectangle2D.Float(0, 0, 10, 10);
+
+        // A hole in the middle of the rectangle.
+        assertNull(Region_Delegate.combineRectangles(rect1, new Rectangle2D.Float(2, 2, 5, 5),
+                Region.Op.DIFFERENCE.nativeInt));
+        assertNull(Region_Delegate.combineRectangles(rect1, new Rectangle2D.Float(5, 5, 10, 10),
+                Region.Op.UNION.nativeInt));
+
+        Path2D path = new Path2D.Float();
+        path.moveTo(0, 0);
+        path.lineTo(10, 0);
+        path.lineTo(0, 10);
+        path.closePath();
+        assertNull(Region_Delegate.combineRectangles(rect1, path, Region.Op.INTERSECT.nativeInt));
+        assertNotNull(Region_Delegate.combineShapes(rect1, path, Region.Op.INTERSECT.nativeInt));
+    }
+}
@@ -21,6 +21,8 @@ import org.junit.Test;
 import android.util.imagepool.ImagePool.Image;
 import android.util.imagepool.ImagePool.ImagePoolPolicy;
 
+import java.awt.Color;
+import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.lang.ref.SoftReference;
 import java.util.concurrent.CountDownLatch;
@@ -30,6 +32,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class ImagePoolImplTest {
 
@@ -129,6 +132,101 @@ public class ImagePoolImplTest {
     }
 
 
+    @Test
+    public void testImageClosed() {
+        int width = 700;
+        int height = 800;
+        int type = BufferedImage.TYPE_INT_ARGB;
+        ImagePoolImpl pool = getSimpleSingleBucketPool(width, height);
+        int[] freedCount = new int[1];
+        Image img1 = pool.acquire(width, height, type, bufferedImage -> freedCount[0]++);
+        BufferedImage bufferedImg1 = getImg(img1);
+
+        // The image goes back to the pool without waiting for a gc
+        img1.close();
+        assertEquals(1, freedCount[0]);
+        // Closing twice has no effect
+        img1.close();
+        assertEquals(1, freedCount[0]);
+
+        Image img2 = pool.acquire(width, height, type);
+        assertEquals(bufferedImg1, getImg(img2));
+
+        try {
+            img1.setRGB(0, 0, 1, 1, new int[1], 0, 1);
+            fail("A closed image cannot be used");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void testImageNotCleared() {
+        int width = 700;
+        int height = 800;
+        int type = BufferedImage.TYPE_INT_ARGB;
+        ImagePoolImpl pool = getSimpleSingleBucketPool(width, height);
+        Image img1 = pool.acquire(width, height, type);
+        BufferedImage bufferedImg1 = getImg(img1);
+        bufferedImg1.setRGB(0, 0, 0xFF00FF00);
+        bufferedImg1.setRGB(width, 0, 0xFF00FF00);
+        img1.close();
+
+        // Only the part of the bucket image that is used is cleared
+        Image img2 = pool.acquire(width, height, type);
+        assertEquals(bufferedImg1, getImg(img2));
+        assertEquals(0, bufferedImg1.getRGB(0, 0));
+        assertEquals(0xFF00FF00, bufferedImg1.getRGB(width, 0));
+        bufferedImg1.setRGB(0, 0, 0xFF00FF00);
+        img2.close();
+
+        Image img3 = pool.acquire(width, height, type, false);
+        assertEquals(bufferedImg1, getImg(img3));
+        assertEquals(0xFF00FF00, bufferedImg1.getRGB(0, 0));
+    }
+
+    @Test
+    public void testAdditionalCopies() {
+        int size = 100;
+        int type = BufferedImage.TYPE_INT_ARGB;
+        ImagePoolImpl pool = new ImagePoolImpl(new ImagePoolPolicy(
+                new int[]{size},
+                new int[]{1},
+                size * size * 4 * 10));
+
+        Image img1 = pool.acquire(size, size, type);
+        assertEquals(size * size * 4, getAllocatedTotalBytes(pool));
+        // All the images of the bucket are in use, the bucket keeps one more copy from now on
+        Image img2 = pool.acquire(size, size, type);
+        assertEquals(size * size * 4 * 3, getAllocatedTotalBytes(pool));
+        Image img3 = pool.acquire(size, size, type);
+        assertEquals(size * size * 4 * 3, getAllocatedTotalBytes(pool));
+        assertNotEquals(getImg(img2), getImg(img3));
+    }
+
+    @Test
+    public void testColdBucketEvicted() {
+        int type = BufferedImage.TYPE_INT_ARGB;
+        ImagePoolImpl pool = new ImagePoolImpl(new ImagePoolPolicy(
+                new int[]{100, 200},
+                new int[]{1, 1},
+                200 * 200 * 4));
+
+        pool.acquire(150, 150, type).close();
+        assertEquals(200 * 200 * 4, getAllocatedTotalBytes(pool));
+
+        // Recently used buckets are kept
+        pool.acquire(50, 50, type);
+        assertEquals(1, getTooBigForPoolCount(pool));
+
+        // Buckets that are not used anymore make room for the others
+        for (Bucket bucket : pool.getBuckets()) {
+            bucket.mLastUsedNanos -= TimeUnit.MINUTES.toNanos(1);
+        }
+        pool.acquire(50, 50, type);
+        assertEquals(1, getTooBigForPoolCount(pool));
+        assertEquals(100 * 100 * 4, getAllocatedTotalBytes(pool));
+    }
+
     @Test
     public void testBufferedImageReleased() throws InterruptedException {
         int width = 700;
@@ -149,7 +247,7 @@ public class ImagePoolImplTest {
         assertTrue(countDownLatch.await(TIMEOUT_SEC, TimeUnit.SECONDS));
 
         // Simulate BufferedBitmaps being gc'd. Bucket filled with null soft refs.
-        for (Bucket bucket : ((ImagePoolImpl) pool).mPool.values()) {
+        for (Bucket bucket : pool.getBuckets()) {
             bucket.mBufferedImageRef.clear();
             bucket.mBufferedImageRef.add(new SoftReference<>(null));
             bucket.mBufferedImageRef.add(new SoftReference<>(null));
@@ -265,6 +363,111 @@ public class ImagePoolImplTest {
         assertNotEquals(bufferedImg1, bufferedImg2);
     }
 
+    @Test
+    public void testBufferedImageRecycled() {
+        int width = 700;
+        int height = 800;
+        int type = BufferedImage.TYPE_INT_ARGB;
+        ImagePoolImpl pool = new ImagePoolImpl(new ImagePoolPolicy(
+                new int[]{800, 800},
+                new int[]{1, 1},
+                0,
+                width * height * 4));
+
+        BufferedImage img1 = pool.acquireBufferedImage(width, height, type);
+        assertEquals(width, img1.getWidth());
+        assertEquals(height, img1.getHeight());
+        img1.setRGB(0, 0, 0xFF00FF00);
+        pool.release(img1);
+        // Releasing twice has no effect
+        pool.release(img1);
+
+        // Different size, not recycled
+        BufferedImage img2 = pool.acquireBufferedImage(width - 1, height, type);
+        assertNotEquals(img1, img2);
+
+        // Same size, recycled and cleared
+        BufferedImage img3 = pool.acquireBufferedImage(width, height, type);
+        assertEquals(img1, img3);
+        assertEquals(0, img3.getRGB(0, 0));
+
+        // Only one image fits in the cache
+        pool.release(img3);
+        pool.release(img2);
+        assertEquals(1, getTooBigForPoolCount(pool));
+        assertNotEquals(img2, pool.acquireBufferedImage(width - 1, height, type));
+
+        // Dispose drops the released images
+        pool.dispose();
+        assertNotEquals(img3, pool.acquireBufferedImage(width, height, type));
+    }
+
+    @Test
+    public void testOffHeapImage() {
+        int width = 70;
+        int height = 80;
+        int type = BufferedImage.TYPE_INT_ARGB;
+        ImagePoolImpl pool = new ImagePoolImpl(new ImagePoolPolicy(
+                new int[]{100},
+                new int[]{1},
+                0,
+                width * height * 4,
+                true));
+
+        BufferedImage img1 = pool.acquireBufferedImage(width, height, type);
+        assertTrue(img1.getRaster().getDataBuffer() instanceof DirectDataBuffer);
+        Graphics2D graphics = img1.createGraphics();
+        graphics.setColor(Color.RED);
+        graphics.fillRect(0, 0, width, height);
+        graphics.dispose();
+        assertEquals(Color.RED.getRGB(), img1.getRGB(width - 1, height - 1));
+
+        // Recycled and cleared
+        pool.release(img1);
+        BufferedImage img2 = pool.acquireBufferedImage(width, height, type);
+        assertEquals(img1, img2);
+        assertEquals(0, img2.getRGB(width - 1, height - 1));
+
+        // Types that are not supported stay on the heap
+        BufferedImage img3 =
+                pool.acquireBufferedImage(width, height, BufferedImage.TYPE_4BYTE_ABGR);
+        assertEquals(BufferedImage.TYPE_4BYTE_ABGR, img3.getType());
+    }
+
+    @Test
+    public void testStatistics() {
+        int width = 700;
+        int height = 800;
+        int type = BufferedImage.TYPE_INT_ARGB;
+        ImagePoolImpl pool = new ImagePoolImpl(new ImagePoolPolicy(
+                new int[]{800},
+                new int[]{1},
+                800 * 800 * 4,
+                width * height * 4));
+
+        pool.acquire(width, height, type).close();
+        pool.acquire(width, height, type).close();
+        Image img = pool.acquire(width, height, type);
+        // Not enough room for a second image
+        pool.acquire(width, height, type);
+        pool.release(pool.acquireBufferedImage(width, height, type));
+
+        ImagePoolStatistics statistics = pool.getStatistics();
+        assertEquals(1, statistics.getBuckets().size());
+        ImagePoolStatistics.BucketStatistics bucket = statistics.getBuckets().get(0);
+        assertEquals(800, bucket.getWidth());
+        assertEquals(800, bucket.getHeight());
+        assertEquals(type, bucket.getType());
+        assertEquals(2, bucket.getHitCount());
+        assertEquals(2, bucket.getMissCount());
+        assertEquals(800 * 800 * 4, statistics.getBucketBytes());
+        assertEquals(width * height * 4, statistics.getExactSizeCachedBytes());
+        assertEquals(width * height * 4 * 2, statistics.getAllocatedOutsidePoolBytes());
+        assertEquals(1, statistics.getTooBigForCacheCount());
+        assertEquals(4, statistics.getRequestHistogram()[10]);
+        assertNotNull(img);
+    }
+
     private static BufferedImage createImageAndReturnBufferedImage(ImagePoolImpl pool, int width,
             int height
             , int type, CountDownLatch cd) {
@@ -291,11 +494,13 @@ public class ImagePoolImplTest {
     }
 
     private static int getTooBigForPoolCount(ImagePool pool) {
-        return ((ImagePoolStatsProdImpl) ((ImagePoolImpl) pool).mImagePoolStats).mTooBigForPoolCount;
+        return ((ImagePoolStatsProdImpl) ((ImagePoolImpl) pool).mImagePoolStats)
+                .mTooBigForPoolCount.get();
     }
 
     private static long getAllocatedTotalBytes(ImagePool pool) {
-        return ((ImagePoolStatsProdImpl) ((ImagePoolImpl) pool).mImagePoolStats).mAllocateTotalBytes;
+        return ((ImagePoolStatsProdImpl) ((ImagePoolImpl) pool).mImagePoolStats)
+                .mAllocateTotalBytes.get();
     }
 
     private static BufferedImage getImg(Image image) {
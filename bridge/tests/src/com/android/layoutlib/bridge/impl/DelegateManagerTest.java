@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.layoutlib.bridge.impl;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class DelegateManagerTest {
+    @Test
+    public void testReclaimMoreThanOneBatch() {
+        // Stop the reclaimer thread so that the references are only reclaimed by the test.
+        boolean reclaimerRunning = DelegateManager.isReclaimerRunning();
+        DelegateManager.stopReclaimer();
+        DelegateManager<Object> manager = new DelegateManager<>(Object.class);
+        try {
+            int count = 1000;
+            long[] nativeObjects = new long[count];
+            for (int i = 0; i < count; i++) {
+                nativeObjects[i] = manager.addNewDelegate(new Object());
+                manager.removeJavaReferenceFor(nativeObjects[i]);
+            }
+            for (long nativeObject : nativeObjects) {
+                manager.enqueueReference(nativeObject);
+            }
+
+            DelegateManager.reclaimAll();
+
+            assertEquals(0, manager.getLiveCount());
+            assertEquals(count, manager.getFreeSlotCount());
+        } finally {
+            manager.unregister();
+            if (reclaimerRunning) {
+                DelegateManager.startReclaimer();
+            }
+        }
+    }
+}
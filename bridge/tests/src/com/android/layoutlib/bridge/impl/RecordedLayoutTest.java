@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.layoutlib.bridge.impl;
+
+import com.android.ide.common.rendering.api.ILayoutPullParser;
+import com.android.layoutlib.bridge.intensive.setup.LayoutPullParser;
+
+import org.junit.Test;
+
+import static com.android.SdkConstants.NS_RESOURCES;
+import static org.junit.Assert.assertEquals;
+import static org.xmlpull.v1.XmlPullParser.END_DOCUMENT;
+import static org.xmlpull.v1.XmlPullParser.START_TAG;
+
+public class RecordedLayoutTest {
+    private static final String LAYOUT =
+            "<LinearLayout xmlns:android=\"http://schemas.android.com/apk/res/android\"\n" +
+            "    xmlns:tools=\"http://schemas.android.com/tools\"\n" +
+            "    android:layout_width=\"match_parent\"\n" +
+            "    android:layout_height=\"match_parent\">\n" +
+            "    <TextView\n" +
+            "        android:layout_width=\"wrap_content\"\n" +
+            "        android:layout_height=\"wrap_content\"\n" +
+            "        android:text=\"Hello\" />\n" +
+            "    <ListView\n" +
+            "        android:layout_width=\"match_parent\"\n" +
+            "        android:layout_height=\"match_parent\"\n" +
+            "        tools:listitem=\"@layout/item\" />\n" +
+            "</LinearLayout>\n";
+
+    @Test
+    public void testReplay() throws Exception {
+        RecordedLayout layout = RecordedLayout.record(LayoutPullParser.createFromString(LAYOUT));
+
+        // Every parser replays the whole layout.
+        for (int i = 0; i < 2; i++) {
+            assertSameEvents(LayoutPullParser.createFromString(LAYOUT), layout.newParser());
+        }
+    }
+
+    @Test
+    public void testNamespaces() throws Exception {
+        RecordedLayout layout = RecordedLayout.record(LayoutPullParser.createFromString(LAYOUT));
+        ILayoutPullParser parser = layout.newParser();
+
+        assertEquals(START_TAG, parser.next());
+        assertEquals(2, parser.getNamespaceCount(1));
+        assertEquals(NS_RESOURCES, parser.getNamespace("android"));
+        assertEquals("match_parent", parser.getAttributeValue(NS_RESOURCES, "layout_width"));
+
+        assertEquals(START_TAG, parser.nextTag());
+        assertEquals("TextView", parser.getName());
+        assertEquals(2, parser.getNamespaceCount(2));
+        assertEquals(NS_RESOURCES, parser.getNamespace("android"));
+        assertEquals("Hello", parser.getAttributeValue(NS_RESOURCES, "text"));
+    }
+
+    private static void assertSameEvents(ILayoutPullParser expected, ILayoutPullParser actual)
+            throws Exception {
+        while (true) {
+            int type = expected.getEventType();
+            assertEquals(type, actual.getEventType());
+            assertEquals(expected.getDepth(), actual.getDepth());
+            assertEquals(expected.getName(), actual.getName());
+            assertEquals(expected.getNamespace(), actual.getNamespace());
+            assertEquals(expected.getText(), actual.getText());
+            assertEquals(expected.getLineNumber(), actual.getLineNumber());
+            assertEquals(expected.getViewCookie(), actual.getViewCookie());
+            assertEquals(expected.getAttributeCount(), actual.getAttributeCount());
+            for (int i = 0; i < expected.getAttributeCount(); i++) {
+                assertEquals(expected.getAttributeNamespace(i), actual.getAttributeNamespace(i));
+                assertEquals(expected.getAttributeName(i), actual.getAttributeName(i));
+                assertEquals(expected.getAttributeValue(i), actual.getAttributeValue(i));
+            }
+
+            if (type == END_DOCUMENT) {
+                break;
+            }
+            expected.next();
+            actual.next();
+        }
+    }
+}
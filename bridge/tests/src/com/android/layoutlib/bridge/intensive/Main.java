@@ -20,7 +20,9 @@ import com.android.layoutlib.bridge.BridgeRenderSessionTest;
 import com.android.layoutlib.bridge.TestDelegates;
 import com.android.layoutlib.bridge.android.BridgeContextTest;
 import com.android.layoutlib.bridge.android.BridgeXmlBlockParserTest;
+import com.android.layoutlib.bridge.impl.DelegateManagerTest;
 import com.android.layoutlib.bridge.impl.LayoutParserWrapperTest;
+import com.android.layoutlib.bridge.impl.RecordedLayoutTest;
 import com.android.layoutlib.bridge.impl.ResourceHelperTest;
 
 import org.junit.runner.RunWith;
@@ -31,6 +33,7 @@ import android.app.SystemServiceRegistry_AccessorTest;
 import android.content.res.Resources_DelegateTest;
 import android.graphics.Color_DelegateTest;
 import android.graphics.Matrix_DelegateTest;
+import android.graphics.Region_DelegateTest;
 import android.util.BridgeXmlPullAttributesTest;
 
 /**
@@ -43,7 +46,8 @@ import android.util.BridgeXmlPullAttributesTest;
         Matrix_DelegateTest.class, TestDelegates.class,
         BridgeRenderSessionTest.class, ResourceHelperTest.class, BridgeContextTest.class,
         SystemServiceRegistry_AccessorTest.class, Resources_DelegateTest.class,
-        Color_DelegateTest.class,
+        Color_DelegateTest.class, RecordedLayoutTest.class, Region_DelegateTest.class,
+        DelegateManagerTest.class,
 })
 public class Main {
 }